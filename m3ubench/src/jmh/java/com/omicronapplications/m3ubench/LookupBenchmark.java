@@ -0,0 +1,82 @@
+package com.omicronapplications.m3ubench;
+
+import com.omicronapplications.m3ulib.M3UFile;
+import com.omicronapplications.m3ulib.M3UList;
+import com.omicronapplications.m3ulib.M3UPlaylist;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+// Finding songs by path and name, like M3UParser.songIndex() on the playlist and on a snapshot
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class LookupBenchmark {
+    private static final int PROBES = 1000;
+
+    @Param({"1000", "100000", "1000000"})
+    public int size;
+
+    private M3UPlaylist mPlaylist;
+    private M3UList mSnapshot;
+    private M3UFile[] mProbes;
+
+    @Setup
+    public void setup() {
+        List<M3UFile> songs = Playlists.songs(size, true, 1);
+        mPlaylist = new M3UPlaylist(songs);
+        mSnapshot = mPlaylist.snapshot();
+        // Half of the probes are in the playlist, all are separate objects like songs from the UI
+        Random random = new Random(2);
+        mProbes = new M3UFile[PROBES];
+        for (int i = 0; i < PROBES; i++) {
+            M3UFile m3u = songs.get(random.nextInt(size));
+            String name = (i % 2 == 0) ? m3u.name : "missing " + m3u.name;
+            mProbes[i] = new M3UFile(m3u.path, name);
+        }
+        mPlaylist.indexOf(mProbes[0]);
+        mSnapshot.indexOf(mProbes[0]);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(PROBES)
+    public int playlistIndex() {
+        int found = 0;
+        for (M3UFile m3u : mProbes) {
+            found += mPlaylist.indexOf(m3u);
+        }
+        return found;
+    }
+
+    // Full paths of songs taken from the playlist, like a playback queue, resolved once per song
+    @Benchmark
+    @OperationsPerInvocation(PROBES)
+    public int fullPath() {
+        int length = 0;
+        for (int i = 0; i < PROBES; i++) {
+            length += mPlaylist.get(i % size).getFullPath().length();
+        }
+        return length;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(PROBES)
+    public int snapshotIndex() {
+        int found = 0;
+        for (M3UFile m3u : mProbes) {
+            found += mSnapshot.indexOf(m3u);
+        }
+        return found;
+    }
+}
@@ -0,0 +1,82 @@
+package com.omicronapplications.m3ubench;
+
+import com.omicronapplications.m3ulib.M3UFile;
+import com.omicronapplications.m3ulib.M3UPlaylist;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+// Bulk edits as done by M3UParser.addSongs() and removeSongs()
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class MutationBenchmark {
+    @Param({"1000", "100000", "1000000"})
+    public int size;
+
+    private List<M3UFile> mSongs;
+    private Set<M3UFile> mRemoved;
+
+    @Setup
+    public void setup() {
+        mSongs = Playlists.songs(size, true, 1);
+        mRemoved = new HashSet<>();
+        for (int i = 0; i < size; i += 2) {
+            mRemoved.add(mSongs.get(i));
+        }
+    }
+
+    // Songs not in the playlist yet are added, like M3UParser.addSong()
+    @Benchmark
+    public M3UPlaylist addAll() {
+        M3UPlaylist playlist = new M3UPlaylist();
+        for (M3UFile m3u : mSongs) {
+            if (playlist.indexOf(m3u) == -1) {
+                playlist.add(m3u);
+            }
+        }
+        return playlist;
+    }
+
+    @Benchmark
+    public M3UPlaylist removeAll(Filled filled) {
+        filled.playlist.removeAll(mRemoved);
+        return filled.playlist;
+    }
+
+    // Removing from the front while a snapshot shares the playlist, the worst case for copy on write
+    @Benchmark
+    public List<M3UFile> removeShared(Filled filled) {
+        List<M3UFile> removed = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            removed.add(filled.playlist.remove(0));
+        }
+        return removed;
+    }
+
+    // A new playlist for each call, for benchmarks that modify it
+    @State(Scope.Thread)
+    public static class Filled {
+        M3UPlaylist playlist;
+        List<M3UFile> snapshot;
+
+        @Setup(Level.Invocation)
+        public void setup(MutationBenchmark benchmark) {
+            playlist = new M3UPlaylist(benchmark.mSongs);
+            snapshot = playlist.snapshot();
+        }
+    }
+}
@@ -0,0 +1,72 @@
+package com.omicronapplications.m3ubench;
+
+import com.omicronapplications.m3ulib.M3UFile;
+import com.omicronapplications.m3ulib.M3UPlaylist;
+import com.omicronapplications.m3ulib.M3UReader;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+// Loading a playlist file into a playlist in chunks, like M3UParser.load()
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class ParseBenchmark {
+    private static final int CHUNK_SIZE = 1000;
+
+    @Param({"1000", "100000", "1000000"})
+    public int size;
+
+    @Param({"false", "true"})
+    public boolean extended;
+
+    private File mList;
+
+    @Setup
+    public void setup() throws IOException {
+        mList = Playlists.write(Playlists.songs(size, extended, 1));
+    }
+
+    @TearDown
+    public void tearDown() {
+        mList.delete();
+    }
+
+    @Benchmark
+    public M3UPlaylist read() throws IOException {
+        return read(false);
+    }
+
+    @Benchmark
+    public M3UPlaylist readLazy() throws IOException {
+        return read(true);
+    }
+
+    private M3UPlaylist read(boolean lazy) throws IOException {
+        M3UPlaylist songs = new M3UPlaylist();
+        M3UReader reader = new M3UReader(mList, lazy);
+        try {
+            List<M3UFile> chunk = new ArrayList<>(CHUNK_SIZE);
+            while (reader.read(chunk, CHUNK_SIZE) > 0) {
+                songs.addAll(chunk);
+                chunk = new ArrayList<>(CHUNK_SIZE);
+            }
+        } finally {
+            reader.close();
+        }
+        return songs;
+    }
+}
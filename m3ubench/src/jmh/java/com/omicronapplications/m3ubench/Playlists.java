@@ -0,0 +1,53 @@
+package com.omicronapplications.m3ubench;
+
+import com.omicronapplications.m3ulib.M3UFile;
+import com.omicronapplications.m3ulib.M3UWriter;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+// Synthetic playlists shaped like a music library: many songs per directory, a few hundred authors
+final class Playlists {
+    private static final String[] WORDS = {"love", "night", "dance", "blue", "moon", "rock", "star", "fire", "rain", "heart"};
+
+    private Playlists() {
+    }
+
+    static List<M3UFile> songs(int size, boolean extended, long seed) {
+        Random random = new Random(seed);
+        List<M3UFile> songs = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            int author = random.nextInt(500);
+            String path = "/storage/emulated/0/Music/Author " + author + "/Album " + random.nextInt(10);
+            String title = WORDS[random.nextInt(WORDS.length)] + " " + WORDS[random.nextInt(WORDS.length)];
+            String name = String.format("%02d %s %d.mp3", i % 20, title, i);
+            if (extended) {
+                songs.add(new M3UFile(path, name, "Author " + author, title, 1000L * (60 + random.nextInt(300))));
+            } else {
+                songs.add(new M3UFile(path, name));
+            }
+        }
+        return songs;
+    }
+
+    static File write(List<M3UFile> songs) throws IOException {
+        File file = File.createTempFile("m3ubench", ".m3u");
+        file.deleteOnExit();
+        M3UWriter writer = new M3UWriter(new FileOutputStream(file));
+        try {
+            if (!songs.isEmpty() && songs.get(0).extended) {
+                writer.writeHeader();
+            }
+            for (M3UFile m3u : songs) {
+                writer.write(m3u);
+            }
+        } finally {
+            writer.close();
+        }
+        return file;
+    }
+}
@@ -0,0 +1,75 @@
+package com.omicronapplications.m3ubench;
+
+import com.omicronapplications.m3ulib.M3UFile;
+import com.omicronapplications.m3ulib.M3UPlaylist;
+import com.omicronapplications.m3ulib.M3UWriter;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.StringWriter;
+import java.util.concurrent.TimeUnit;
+
+// Writing a whole playlist, to bytes like a playlist file and to characters like M3UParser.dump()
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class WriteBenchmark {
+    @Param({"1000", "100000", "1000000"})
+    public int size;
+
+    @Param({"false", "true"})
+    public boolean extended;
+
+    private M3UPlaylist mSongs;
+
+    @Setup
+    public void setup() {
+        mSongs = new M3UPlaylist(Playlists.songs(size, extended, 1));
+    }
+
+    @Benchmark
+    public long write() throws IOException {
+        CountingStream stream = new CountingStream();
+        write(new M3UWriter(stream));
+        return stream.mCount;
+    }
+
+    @Benchmark
+    public int dump() throws IOException {
+        StringWriter sw = new StringWriter();
+        write(new M3UWriter(sw));
+        return sw.getBuffer().length();
+    }
+
+    private void write(M3UWriter writer) throws IOException {
+        writer.writeHeader();
+        for (M3UFile m3u : mSongs) {
+            writer.write(m3u);
+        }
+        writer.close();
+    }
+
+    // Discards the bytes, so that only serialization is measured
+    private static final class CountingStream extends OutputStream {
+        private long mCount;
+
+        @Override
+        public void write(int b) {
+            mCount++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+            mCount += len;
+        }
+    }
+}
@@ -0,0 +1,7 @@
+package com.omicronapplications.m3ulib;
+
+import java.util.List;
+
+public interface IM3UValidateCallback {
+    void onM3UValidate(List<M3UFile> songs, int[] missing, int[] changed, int checked, boolean last);
+}
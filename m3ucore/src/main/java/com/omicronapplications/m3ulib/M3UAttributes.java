@@ -0,0 +1,266 @@
+package com.omicronapplications.m3ulib;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+// Attributes and directive lines of the songs of one playlist, packed into arrays instead of a map per song
+final class M3UAttributes {
+    static final int NO_ENTRY = -1;
+    // An attribute of the #EXTINF line, or a directive line before or after it
+    static final int ATTRIBUTE = 0;
+    static final int BEFORE = 1;
+    static final int AFTER = 2;
+    private static final int KIND_BITS = 2;
+    private static final int KIND_MASK = (1 << KIND_BITS) - 1;
+    // An entry is its item count, followed by key and kind, value offset and value length of each item
+    private static final int ITEM = 3;
+    private static final int NO_VALUE = -1;
+    private static final Object TIE_LOCK = new Object();
+    // Keys are few and repeated by every song, they are looked up by their characters without creating strings
+    private String[] mKeys;
+    private int mKeyCount;
+    private int[] mSlots;
+    private int[] mRecords;
+    private int mRecordCount;
+    private char[] mChars;
+    private int mCharCount;
+
+    M3UAttributes() {
+        mKeys = new String[8];
+        mKeyCount = 0;
+        mSlots = new int[16];
+        mRecords = new int[64];
+        mRecordCount = 0;
+        mChars = new char[256];
+        mCharCount = 0;
+    }
+
+    // Adds an item to the last entry, or to a new entry if entry is NO_ENTRY, and returns the entry
+    synchronized int add(int entry, int kind, char[] buf, int keyStart, int keyEnd, int valueStart, int valueEnd) {
+        return append(entry, kind, key(buf, keyStart, keyEnd), buf, valueStart, valueEnd);
+    }
+
+    synchronized int add(int entry, int kind, String key, String value) {
+        if (value == null) {
+            return append(entry, kind, key(key), null, NO_VALUE, NO_VALUE);
+        }
+        char[] buf = value.toCharArray();
+        return append(entry, kind, key(key), buf, 0, buf.length);
+    }
+
+    // Copies an entry of another table, and returns the entry in this table
+    int copy(M3UAttributes from, int entry) {
+        // Both tables are locked in a fixed order, so that copies in opposite directions cannot deadlock
+        int hash = System.identityHashCode(this);
+        int fromHash = System.identityHashCode(from);
+        if (hash < fromHash) {
+            synchronized (this) {
+                synchronized (from) {
+                    return copyEntry(from, entry);
+                }
+            }
+        } else if (hash > fromHash) {
+            synchronized (from) {
+                synchronized (this) {
+                    return copyEntry(from, entry);
+                }
+            }
+        }
+        synchronized (TIE_LOCK) {
+            synchronized (this) {
+                synchronized (from) {
+                    return copyEntry(from, entry);
+                }
+            }
+        }
+    }
+
+    private int copyEntry(M3UAttributes from, int entry) {
+        int copy = NO_ENTRY;
+        // Appending to this table may replace its arrays, the items are read from the arrays of the other table
+        int[] records = from.mRecords;
+        char[] chars = from.mChars;
+        for (int i = 0; i < records[entry]; i++) {
+            int item = entry + 1 + ITEM * i;
+            int key = key(from.mKeys[records[item] >>> KIND_BITS]);
+            int offset = records[item + 1];
+            int end = (offset == NO_VALUE) ? NO_VALUE : offset + records[item + 2];
+            copy = append(copy, records[item] & KIND_MASK, key, chars, offset, end);
+        }
+        return copy;
+    }
+
+    // Removes the last entry, when the lines it was read from turn out not to belong to a song
+    synchronized void discard(int entry) {
+        if (entry != NO_ENTRY && entry < mRecordCount) {
+            // Values are appended in item order, so the chars of the entry start at its first value
+            for (int i = 0; i < mRecords[entry]; i++) {
+                int offset = mRecords[entry + 1 + ITEM * i + 1];
+                if (offset != NO_VALUE) {
+                    mCharCount = offset;
+                    break;
+                }
+            }
+            mRecordCount = entry;
+        }
+    }
+
+    synchronized int size(int entry) {
+        return mRecords[entry];
+    }
+
+    synchronized int kind(int entry, int i) {
+        return mRecords[entry + 1 + ITEM * i] & KIND_MASK;
+    }
+
+    synchronized String key(int entry, int i) {
+        return mKeys[mRecords[entry + 1 + ITEM * i] >>> KIND_BITS];
+    }
+
+    // Null for directive lines without a colon, and attributes without a value
+    synchronized String value(int entry, int i) {
+        int item = entry + 1 + ITEM * i;
+        int offset = mRecords[item + 1];
+        return (offset == NO_VALUE) ? null : new String(mChars, offset, mRecords[item + 2]);
+    }
+
+    // Value of the first attribute, or directive, with the key
+    synchronized String find(int entry, boolean directive, String key) {
+        for (int i = 0; i < mRecords[entry]; i++) {
+            int item = entry + 1 + ITEM * i;
+            boolean isDirective = (mRecords[item] & KIND_MASK) != ATTRIBUTE;
+            if (isDirective == directive && mKeys[mRecords[item] >>> KIND_BITS].equals(key)) {
+                String value = value(entry, i);
+                return (value != null) ? value : "";
+            }
+        }
+        return null;
+    }
+
+    synchronized void attributes(int entry, Map<String, String> attributes) {
+        for (int i = 0; i < mRecords[entry]; i++) {
+            if (kind(entry, i) == ATTRIBUTE && !attributes.containsKey(key(entry, i))) {
+                attributes.put(key(entry, i), value(entry, i));
+            }
+        }
+    }
+
+    synchronized void directives(int entry, List<String> directives) {
+        for (int i = 0; i < mRecords[entry]; i++) {
+            if (kind(entry, i) != ATTRIBUTE) {
+                String value = value(entry, i);
+                directives.add((value != null) ? key(entry, i) + ":" + value : key(entry, i));
+            }
+        }
+    }
+
+    // Releases unused capacity once all songs have been added
+    synchronized void trimToSize() {
+        mRecords = Arrays.copyOf(mRecords, Math.max(1, mRecordCount));
+        mChars = Arrays.copyOf(mChars, Math.max(1, mCharCount));
+    }
+
+    private int append(int entry, int kind, int key, char[] buf, int valueStart, int valueEnd) {
+        if (entry == NO_ENTRY) {
+            entry = mRecordCount;
+            ensureRecords(1);
+            mRecords[mRecordCount++] = 0;
+        }
+        ensureRecords(ITEM);
+        int item = mRecordCount;
+        mRecords[item] = (key << KIND_BITS) | kind;
+        if (valueStart == NO_VALUE) {
+            mRecords[item + 1] = NO_VALUE;
+            mRecords[item + 2] = 0;
+        } else {
+            int len = valueEnd - valueStart;
+            if (mCharCount + len > mChars.length) {
+                mChars = Arrays.copyOf(mChars, Math.max(mCharCount + len, 2 * mChars.length));
+            }
+            System.arraycopy(buf, valueStart, mChars, mCharCount, len);
+            mRecords[item + 1] = mCharCount;
+            mRecords[item + 2] = len;
+            mCharCount += len;
+        }
+        mRecordCount += ITEM;
+        mRecords[entry]++;
+        return entry;
+    }
+
+    private void ensureRecords(int count) {
+        if (mRecordCount + count > mRecords.length) {
+            mRecords = Arrays.copyOf(mRecords, Math.max(mRecordCount + count, 2 * mRecords.length));
+        }
+    }
+
+    // Same hash as String.hashCode(), so that keys from characters and from strings share the slots
+    private int key(char[] buf, int start, int end) {
+        int hash = 0;
+        for (int i = start; i < end; i++) {
+            hash = 31 * hash + buf[i];
+        }
+        int mask = mSlots.length - 1;
+        for (int slot = spread(hash) & mask; ; slot = (slot + 1) & mask) {
+            int key = mSlots[slot] - 1;
+            if (key < 0) {
+                return addKey(new String(buf, start, end - start), slot);
+            }
+            if (equals(mKeys[key], buf, start, end)) {
+                return key;
+            }
+        }
+    }
+
+    private int key(String str) {
+        int mask = mSlots.length - 1;
+        for (int slot = spread(str.hashCode()) & mask; ; slot = (slot + 1) & mask) {
+            int key = mSlots[slot] - 1;
+            if (key < 0) {
+                return addKey(str, slot);
+            }
+            if (mKeys[key].equals(str)) {
+                return key;
+            }
+        }
+    }
+
+    // Slots hold key indexes plus one, so that zero is an empty slot
+    private int addKey(String str, int slot) {
+        if (mKeyCount == mKeys.length) {
+            mKeys = Arrays.copyOf(mKeys, 2 * mKeyCount);
+        }
+        int key = mKeyCount++;
+        mKeys[key] = str;
+        mSlots[slot] = key + 1;
+        if (2 * mKeyCount > mSlots.length) {
+            int[] slots = new int[2 * mSlots.length];
+            int mask = slots.length - 1;
+            for (int i = 0; i < mKeyCount; i++) {
+                int s = spread(mKeys[i].hashCode()) & mask;
+                while (slots[s] != 0) {
+                    s = (s + 1) & mask;
+                }
+                slots[s] = i + 1;
+            }
+            mSlots = slots;
+        }
+        return key;
+    }
+
+    private static int spread(int hash) {
+        return hash ^ (hash >>> 16);
+    }
+
+    private static boolean equals(String str, char[] buf, int start, int end) {
+        if (str.length() != end - start) {
+            return false;
+        }
+        for (int i = start; i < end; i++) {
+            if (str.charAt(i - start) != buf[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
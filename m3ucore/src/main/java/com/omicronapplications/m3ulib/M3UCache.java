@@ -0,0 +1,220 @@
+package com.omicronapplications.m3ulib;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.CRC32;
+
+// Binary playlist snapshot: header, string table, then fixed-width song records
+final class M3UCache {
+    private static final int MAGIC = 0x4D335543; // M3UC
+    private static final int VERSION = 2;
+    private static final int HASH_SIZE = 4096;
+    private static final int FLAG_EXTENDED = 1;
+    private static final int FLAG_ATTRIBUTES = 2;
+    private final File mCache;
+    private boolean mAppendable;
+
+    M3UCache(File cache) {
+        mCache = cache;
+        mAppendable = false;
+    }
+
+    static File getCacheFile(File dir, File list) {
+        String path = list.getAbsolutePath();
+        return new File(dir, list.getName() + "-" + Integer.toHexString(path.hashCode()) + ".m3uc");
+    }
+
+    File getFile() {
+        return mCache;
+    }
+
+    boolean isAppendable() {
+        return mAppendable;
+    }
+
+    // Length and modification time are those seen when the songs were read or written
+    void write(File list, long length, long modified, List<M3UFile> songs, boolean appendable) throws IOException {
+        M3UStrings strings = new M3UStrings();
+        int[] records = new int[4 * songs.size()];
+        for (int i = 0; i < songs.size(); i++) {
+            M3UFile m3u = songs.get(i);
+            records[4 * i] = strings.intern(m3u.path);
+            records[4 * i + 1] = strings.intern(m3u.name);
+            records[4 * i + 2] = strings.intern(m3u.author);
+            records[4 * i + 3] = strings.intern(m3u.title);
+            if (m3u.attributes != null) {
+                for (int j = 0; j < m3u.attributes.size(m3u.attributeEntry); j++) {
+                    strings.intern(m3u.attributes.key(m3u.attributeEntry, j));
+                    strings.intern(m3u.attributes.value(m3u.attributeEntry, j));
+                }
+            }
+        }
+
+        File temp = new File(mCache.getPath() + ".tmp");
+        FileOutputStream fs = new FileOutputStream(temp);
+        DataOutputStream ds = new DataOutputStream(new BufferedOutputStream(fs));
+        try {
+            ds.writeInt(MAGIC);
+            ds.writeInt(VERSION);
+            ds.writeLong(length);
+            ds.writeLong(modified);
+            ds.writeLong(hash(list));
+            ds.writeBoolean(appendable);
+            ds.writeInt(strings.size());
+            for (int i = 0; i < strings.size(); i++) {
+                byte[] bytes = strings.get(i).getBytes(M3UDecoder.UTF_8);
+                ds.writeInt(bytes.length);
+                ds.write(bytes);
+            }
+            ds.writeInt(songs.size());
+            for (int i = 0; i < songs.size(); i++) {
+                M3UFile m3u = songs.get(i);
+                ds.writeInt(records[4 * i]);
+                ds.writeInt(records[4 * i + 1]);
+                ds.writeInt(records[4 * i + 2]);
+                ds.writeInt(records[4 * i + 3]);
+                ds.writeLong(m3u.songlength);
+                M3UAttributes attributes = m3u.attributes;
+                ds.writeByte((m3u.extended ? FLAG_EXTENDED : 0) | (attributes != null ? FLAG_ATTRIBUTES : 0));
+                if (attributes != null) {
+                    // Kind, key and value of each attribute and directive
+                    int entry = m3u.attributeEntry;
+                    ds.writeInt(attributes.size(entry));
+                    for (int j = 0; j < attributes.size(entry); j++) {
+                        ds.writeByte(attributes.kind(entry, j));
+                        ds.writeInt(strings.intern(attributes.key(entry, j)));
+                        ds.writeInt(strings.intern(attributes.value(entry, j)));
+                    }
+                }
+            }
+            ds.flush();
+            fs.getFD().sync();
+        } finally {
+            ds.close();
+        }
+        if (!temp.renameTo(mCache)) {
+            temp.delete();
+            throw new IOException("rename failed: " + temp.getAbsolutePath());
+        }
+    }
+
+    // Returns null if there is no snapshot, or it does not match the playlist file
+    List<M3UFile> read(File list) throws IOException {
+        return read(list, new M3UResolver(list));
+    }
+
+    List<M3UFile> read(File list, M3UResolver resolver) throws IOException {
+        if (!mCache.exists()) {
+            return null;
+        }
+        FileInputStream fs = new FileInputStream(mCache);
+        try {
+            FileChannel channel = fs.getChannel();
+            ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (buffer.getInt() != MAGIC || buffer.getInt() != VERSION) {
+                return null;
+            }
+            if (buffer.getLong() != list.length() || buffer.getLong() != list.lastModified() || buffer.getLong() != hash(list)) {
+                return null;
+            }
+            mAppendable = buffer.get() != 0;
+
+            String[] strings = new String[buffer.getInt()];
+            byte[] bytes = new byte[256];
+            for (int i = 0; i < strings.length; i++) {
+                int len = buffer.getInt();
+                if (bytes.length < len) {
+                    bytes = new byte[Math.max(len, 2 * bytes.length)];
+                }
+                buffer.get(bytes, 0, len);
+                strings[i] = new String(bytes, 0, len, M3UDecoder.UTF_8);
+            }
+
+            int count = buffer.getInt();
+            List<M3UFile> songs = new ArrayList<>(count);
+            M3UAttributes attributes = null;
+            for (int i = 0; i < count; i++) {
+                String path = string(strings, buffer.getInt());
+                String name = string(strings, buffer.getInt());
+                String author = string(strings, buffer.getInt());
+                String title = string(strings, buffer.getInt());
+                long songlength = buffer.getLong();
+                int flags = buffer.get();
+                M3UFile m3u;
+                if ((flags & FLAG_EXTENDED) != 0) {
+                    m3u = new M3UFile(path, name, author, title, songlength);
+                } else {
+                    m3u = new M3UFile(path, name);
+                }
+                m3u.path = path;
+                m3u.name = name;
+                m3u.resolver = resolver;
+                if ((flags & FLAG_ATTRIBUTES) != 0) {
+                    if (attributes == null) {
+                        attributes = new M3UAttributes();
+                    }
+                    int entry = M3UAttributes.NO_ENTRY;
+                    int items = buffer.getInt();
+                    for (int j = 0; j < items; j++) {
+                        int kind = buffer.get();
+                        String key = string(strings, buffer.getInt());
+                        if (key == null) {
+                            throw new IOException("corrupt snapshot: " + mCache.getAbsolutePath());
+                        }
+                        entry = attributes.add(entry, kind, key, string(strings, buffer.getInt()));
+                    }
+                    if (entry != M3UAttributes.NO_ENTRY) {
+                        m3u.attributes = attributes;
+                        m3u.attributeEntry = entry;
+                    }
+                }
+                songs.add(m3u);
+            }
+            return songs;
+        } catch (BufferUnderflowException e) {
+            throw new IOException("truncated snapshot: " + mCache.getAbsolutePath());
+        } catch (IndexOutOfBoundsException | NegativeArraySizeException | IllegalArgumentException e) {
+            throw new IOException("corrupt snapshot: " + mCache.getAbsolutePath());
+        } finally {
+            fs.close();
+        }
+    }
+
+    boolean delete() {
+        return mCache.delete();
+    }
+
+    private static String string(String[] strings, int i) {
+        return (i == M3UStrings.NO_STRING) ? null : strings[i];
+    }
+
+    // Checksum of the start and end of the playlist, to catch changes that keep size and time
+    static long hash(File list) throws IOException {
+        CRC32 crc = new CRC32();
+        RandomAccessFile raf = new RandomAccessFile(list, "r");
+        try {
+            long length = raf.length();
+            byte[] buf = new byte[(int) Math.min(HASH_SIZE, length)];
+            raf.readFully(buf);
+            crc.update(buf);
+            if (length > HASH_SIZE) {
+                raf.seek(Math.max(HASH_SIZE, length - HASH_SIZE));
+                int len = raf.read(buf);
+                crc.update(buf, 0, Math.max(0, len));
+            }
+        } finally {
+            raf.close();
+        }
+        return crc.getValue();
+    }
+}
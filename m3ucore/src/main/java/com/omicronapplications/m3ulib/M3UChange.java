@@ -0,0 +1,69 @@
+package com.omicronapplications.m3ulib;
+
+// Range of songs changed in a playlist, positions are valid when changes are applied in order
+public final class M3UChange {
+    public static final int INSERTED = 1;
+    public static final int REMOVED = 2;
+    public static final int MOVED = 3;
+    public static final int UPDATED = 4;
+
+    M3UChange(int type, int index, int count, int toIndex) {
+        this.type = type;
+        this.index = index;
+        this.count = count;
+        this.toIndex = toIndex;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (this == obj) {
+            return true;
+        }
+        if (!(obj instanceof M3UChange)) {
+            return false;
+        }
+        M3UChange other = (M3UChange) obj;
+        return type == other.type &&
+                index == other.index &&
+                count == other.count &&
+                toIndex == other.toIndex;
+    }
+
+    @Override
+    public int hashCode() {
+        return ((31 * type + index) * 31 + count) * 31 + toIndex;
+    }
+
+    @Override
+    public String toString() {
+        String str;
+        switch (type) {
+            case INSERTED:
+                str = "inserted";
+                break;
+            case REMOVED:
+                str = "removed";
+                break;
+            case MOVED:
+                str = "moved";
+                break;
+            case UPDATED:
+                str = "updated";
+                break;
+            default:
+                str = "unknown";
+                break;
+        }
+        str += " " + index + "+" + count;
+        if (type == MOVED) {
+            str += " -> " + toIndex;
+        }
+        return str;
+    }
+
+    public final int type;
+    public final int index;
+    public final int count;
+    // Destination of a moved song, -1 for other changes
+    public final int toIndex;
+}
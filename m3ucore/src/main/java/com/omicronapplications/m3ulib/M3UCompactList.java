@@ -0,0 +1,182 @@
+package com.omicronapplications.m3ulib;
+
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.RandomAccess;
+
+// Append-only song list storing records instead of objects, songs are created on access
+public final class M3UCompactList extends AbstractList<M3UFile> implements RandomAccess {
+    private static final int DIR = 0;
+    private static final int AUTHOR = 1;
+    private static final int OFFSET = 2;
+    private static final int NAME_LENGTH = 3;
+    private static final int ATTRIBUTES = 4;
+    private static final int RESOLVER = 5;
+    private static final int FIELDS = 6;
+    private static final byte FLAG_EXTENDED = 1;
+    private static final byte FLAG_NO_NAME = 2;
+    private static final byte FLAG_NO_TITLE = 4;
+    // Directories and authors are shared, names and titles are packed into one character array
+    private final M3UStrings mStrings;
+    // Attributes and directives are copied into a table of the list, created for the first song having any
+    private M3UAttributes mAttributes;
+    // Resolvers of the playlists the songs were read from, a merged list has one per playlist
+    private final ArrayList<M3UResolver> mResolvers;
+    private int[] mRecords;
+    private long[] mSonglengths;
+    private byte[] mFlags;
+    private char[] mChars;
+    private int mCharCount;
+    private int mSize;
+
+    public M3UCompactList() {
+        this(16);
+    }
+
+    public M3UCompactList(int capacity) {
+        capacity = Math.max(1, capacity);
+        mStrings = new M3UStrings();
+        mResolvers = new ArrayList<>();
+        mRecords = new int[FIELDS * capacity];
+        mSonglengths = new long[capacity];
+        mFlags = new byte[capacity];
+        mChars = new char[16 * capacity];
+        mCharCount = 0;
+        mSize = 0;
+    }
+
+    public M3UCompactList(Collection<M3UFile> songs) {
+        this(songs.size());
+        addAll(songs);
+    }
+
+    @Override
+    public M3UFile get(int index) {
+        if (index < 0 || index >= mSize) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + mSize);
+        }
+        int record = FIELDS * index;
+        String path = mStrings.get(mRecords[record + DIR]);
+        int offset = mRecords[record + OFFSET];
+        int nameLength = mRecords[record + NAME_LENGTH];
+        int end = (index + 1 < mSize) ? mRecords[record + FIELDS + OFFSET] : mCharCount;
+        byte flags = mFlags[index];
+        String name = ((flags & FLAG_NO_NAME) != 0) ? null : new String(mChars, offset, nameLength);
+        M3UFile m3u;
+        if ((flags & FLAG_EXTENDED) != 0) {
+            String author = mStrings.get(mRecords[record + AUTHOR]);
+            String title = ((flags & FLAG_NO_TITLE) != 0) ? null : new String(mChars, offset + nameLength, end - offset - nameLength);
+            m3u = new M3UFile(path, name, author, title, mSonglengths[index]);
+        } else {
+            m3u = new M3UFile(path, name);
+        }
+        m3u.path = path;
+        m3u.name = name;
+        int entry = mRecords[record + ATTRIBUTES];
+        if (entry != M3UAttributes.NO_ENTRY) {
+            m3u.attributes = mAttributes;
+            m3u.attributeEntry = entry;
+        }
+        int resolver = mRecords[record + RESOLVER];
+        if (resolver != -1) {
+            m3u.resolver = mResolvers.get(resolver);
+        }
+        return m3u;
+    }
+
+    @Override
+    public int size() {
+        return mSize;
+    }
+
+    @Override
+    public boolean add(M3UFile m3u) {
+        m3u.decode();
+        if (mSize == mFlags.length) {
+            int capacity = Math.max(16, 2 * mSize);
+            mRecords = Arrays.copyOf(mRecords, FIELDS * capacity);
+            mSonglengths = Arrays.copyOf(mSonglengths, capacity);
+            mFlags = Arrays.copyOf(mFlags, capacity);
+        }
+        byte flags = 0;
+        int record = FIELDS * mSize;
+        mRecords[record + DIR] = mStrings.intern(m3u.path);
+        mRecords[record + AUTHOR] = m3u.extended ? mStrings.intern(m3u.author) : M3UStrings.NO_STRING;
+        mRecords[record + OFFSET] = mCharCount;
+        if (m3u.name != null) {
+            appendChars(m3u.name);
+            mRecords[record + NAME_LENGTH] = m3u.name.length();
+        } else {
+            mRecords[record + NAME_LENGTH] = 0;
+            flags |= FLAG_NO_NAME;
+        }
+        if (m3u.extended) {
+            flags |= FLAG_EXTENDED;
+            if (m3u.title != null) {
+                appendChars(m3u.title);
+            } else {
+                flags |= FLAG_NO_TITLE;
+            }
+            mSonglengths[mSize] = m3u.songlength;
+        }
+        if (m3u.attributes != null) {
+            if (mAttributes == null) {
+                mAttributes = new M3UAttributes();
+            }
+            mRecords[record + ATTRIBUTES] = mAttributes.copy(m3u.attributes, m3u.attributeEntry);
+        } else {
+            mRecords[record + ATTRIBUTES] = M3UAttributes.NO_ENTRY;
+        }
+        mRecords[record + RESOLVER] = resolver(m3u.resolver);
+        mFlags[mSize] = flags;
+        mSize++;
+        modCount++;
+        return true;
+    }
+
+    @Override
+    public void clear() {
+        mStrings.clear();
+        mResolvers.clear();
+        mAttributes = null;
+        mCharCount = 0;
+        mSize = 0;
+        modCount++;
+    }
+
+    // Releases unused capacity once all songs have been added
+    public void trimToSize() {
+        mRecords = Arrays.copyOf(mRecords, FIELDS * Math.max(1, mSize));
+        mSonglengths = Arrays.copyOf(mSonglengths, Math.max(1, mSize));
+        mFlags = Arrays.copyOf(mFlags, Math.max(1, mSize));
+        mChars = Arrays.copyOf(mChars, Math.max(1, mCharCount));
+        if (mAttributes != null) {
+            mAttributes.trimToSize();
+        }
+    }
+
+    private int resolver(M3UResolver resolver) {
+        if (resolver == null) {
+            return -1;
+        }
+        // Songs are mostly added a playlist at a time
+        for (int i = mResolvers.size() - 1; i >= 0; i--) {
+            if (mResolvers.get(i) == resolver) {
+                return i;
+            }
+        }
+        mResolvers.add(resolver);
+        return mResolvers.size() - 1;
+    }
+
+    private void appendChars(String str) {
+        int len = str.length();
+        if (mCharCount + len > mChars.length) {
+            mChars = Arrays.copyOf(mChars, Math.max(mCharCount + len, 2 * mChars.length));
+        }
+        str.getChars(0, len, mChars, mCharCount);
+        mCharCount += len;
+    }
+}
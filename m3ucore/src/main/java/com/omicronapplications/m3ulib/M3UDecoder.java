@@ -0,0 +1,142 @@
+package com.omicronapplications.m3ulib;
+
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+
+final class M3UDecoder {
+    static final Charset UTF_8 = Charset.forName("UTF-8");
+    static final Charset UTF_16BE = Charset.forName("UTF-16BE");
+    static final Charset UTF_16LE = Charset.forName("UTF-16LE");
+    static final Charset ISO_8859_1 = Charset.forName("ISO-8859-1");
+    private static final String M3U8 = ".m3u8";
+    private final Charset mCharset;
+    private final CharsetDecoder mDecoder;
+    private final boolean mLatin1;
+    private final ByteBuffer mView;
+    private char[] mChars;
+
+    M3UDecoder(ByteBuffer buffer, Charset charset) {
+        mCharset = charset;
+        mDecoder = charset.newDecoder()
+                .onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE);
+        mLatin1 = ISO_8859_1.equals(charset);
+        mView = buffer.duplicate();
+        mChars = new char[256];
+    }
+
+    Charset getCharset() {
+        return mCharset;
+    }
+
+    char[] chars() {
+        return mChars;
+    }
+
+    // Decodes bytes [start, end) into chars(), and returns the number of chars decoded
+    int decode(int start, int end) {
+        int len = end - start;
+        if (mChars.length < len) {
+            mChars = new char[Math.max(len, 2 * mChars.length)];
+        }
+        int i = 0;
+        for (; i < len; i++) {
+            byte b = mView.get(start + i);
+            if (b < 0 && !mLatin1) {
+                break;
+            }
+            mChars[i] = (char) (b & 0xFF);
+        }
+        if (i == len) {
+            return len;
+        }
+
+        mView.limit(end);
+        mView.position(start + i);
+        CharBuffer out = CharBuffer.wrap(mChars, i, mChars.length - i);
+        mDecoder.reset();
+        mDecoder.decode(mView, out, true);
+        mDecoder.flush(out);
+        mView.clear();
+        return out.position();
+    }
+
+    String decodeString(int start, int end) {
+        int len = decode(start, end);
+        return (len == 0) ? "" : new String(mChars, 0, len);
+    }
+
+    static int bomLength(ByteBuffer buffer) {
+        int limit = buffer.limit();
+        if (limit >= 3 && (buffer.get(0) & 0xFF) == 0xEF && (buffer.get(1) & 0xFF) == 0xBB && (buffer.get(2) & 0xFF) == 0xBF) {
+            return 3;
+        }
+        if (limit >= 2 && (buffer.get(0) & 0xFF) == 0xFE && (buffer.get(1) & 0xFF) == 0xFF) {
+            return 2;
+        }
+        if (limit >= 2 && (buffer.get(0) & 0xFF) == 0xFF && (buffer.get(1) & 0xFF) == 0xFE) {
+            return 2;
+        }
+        return 0;
+    }
+
+    // Byte order mark first, then .m3u8 naming, then a UTF-8 validity scan falling back to Latin-1
+    static Charset detect(ByteBuffer buffer, String name) {
+        int limit = buffer.limit();
+        if (bomLength(buffer) == 3) {
+            return UTF_8;
+        }
+        if (limit >= 2 && (buffer.get(0) & 0xFF) == 0xFE && (buffer.get(1) & 0xFF) == 0xFF) {
+            return UTF_16BE;
+        }
+        if (limit >= 2 && (buffer.get(0) & 0xFF) == 0xFF && (buffer.get(1) & 0xFF) == 0xFE) {
+            return UTF_16LE;
+        }
+        if (name != null && name.toLowerCase().endsWith(M3U8)) {
+            return UTF_8;
+        }
+        return isUtf8(buffer, 0, limit) ? UTF_8 : ISO_8859_1;
+    }
+
+    static boolean isUtf8(ByteBuffer buffer, int start, int end) {
+        int pos = start;
+        while (pos < end) {
+            int b = buffer.get(pos++) & 0xFF;
+            if (b < 0x80) {
+                continue;
+            }
+            int more;
+            int min;
+            if (b >= 0xC2 && b <= 0xDF) {
+                more = 1;
+                min = 0x80;
+            } else if (b >= 0xE0 && b <= 0xEF) {
+                more = 2;
+                min = 0x800;
+            } else if (b >= 0xF0 && b <= 0xF4) {
+                more = 3;
+                min = 0x10000;
+            } else {
+                return false;
+            }
+            if (pos + more > end) {
+                return false;
+            }
+            int cp = b & (0x3F >> more);
+            for (int i = 0; i < more; i++) {
+                int c = buffer.get(pos++) & 0xFF;
+                if ((c & 0xC0) != 0x80) {
+                    return false;
+                }
+                cp = (cp << 6) | (c & 0x3F);
+            }
+            if (cp < min || cp > 0x10FFFF || (cp >= 0xD800 && cp <= 0xDFFF)) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,155 @@
+package com.omicronapplications.m3ulib;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+
+// Playlist parsed from a stream while the stream is copied to a file, the file is replaced once the whole stream has been read
+final class M3UDownload implements Closeable {
+    private static final int SNIFF_SIZE = 65536;
+    private final File mList;
+    private final File mTemp;
+    private final FileOutputStream mFile;
+    private final OutputStream mCopy;
+    private final InputStream mStream;
+    private final M3UReader mReader;
+    private final Charset mCharset;
+    private boolean mCommitted;
+
+    // Without a charset, it is detected from the start of the stream like for files
+    M3UDownload(InputStream stream, Charset charset, File list) throws IOException {
+        mList = list;
+        mTemp = File.createTempFile("m3u", "tmp", list.getAbsoluteFile().getParentFile());
+        mFile = new FileOutputStream(mTemp);
+        mCopy = new BufferedOutputStream(mFile);
+        try {
+            BufferedInputStream in = new BufferedInputStream(new Tee(stream, mCopy), SNIFF_SIZE);
+            in.mark(SNIFF_SIZE);
+            byte[] bytes = new byte[SNIFF_SIZE];
+            int len = 0;
+            int read = 0;
+            while (len < SNIFF_SIZE && (read = in.read(bytes, len, SNIFF_SIZE - len)) != -1) {
+                len += read;
+            }
+            in.reset();
+            // A character cut off at the end of a full buffer would fail the UTF-8 check
+            if (read != -1) {
+                int end = len;
+                while (end > 0 && bytes[end - 1] != '\n') {
+                    end--;
+                }
+                len = (end > 0) ? end : len;
+            }
+            ByteBuffer start = ByteBuffer.wrap(bytes, 0, len);
+            Charset detected = M3UDecoder.detect(start, list.getName());
+            if (charset == null) {
+                charset = detected;
+            }
+            if (charset.equals(detected)) {
+                in.skip(M3UDecoder.bomLength(start));
+            }
+            mCharset = charset;
+            mStream = in;
+            mReader = new M3UReader(new InputStreamReader(in, charset));
+        } catch (IOException e) {
+            mCopy.close();
+            mTemp.delete();
+            throw e;
+        }
+        mCommitted = false;
+    }
+
+    M3UReader getReader() {
+        return mReader;
+    }
+
+    Charset getCharset() {
+        return mCharset;
+    }
+
+    // Reads what is left of the stream, and replaces the file with the copy
+    void commit() throws IOException {
+        byte[] buf = new byte[8192];
+        while (mStream.read(buf) != -1) {
+            // Trailing comments after the last song
+        }
+        mCopy.flush();
+        mFile.getFD().sync();
+        mCopy.close();
+        if (!mTemp.renameTo(mList)) {
+            mTemp.delete();
+            throw new IOException("rename failed: " + mTemp.getAbsolutePath());
+        }
+        mCommitted = true;
+    }
+
+    // Without a commit, the file is left as it was
+    @Override
+    public void close() throws IOException {
+        try {
+            mReader.close();
+        } finally {
+            if (!mCommitted) {
+                mCopy.close();
+                mTemp.delete();
+            }
+        }
+    }
+
+    // Copies each byte read from the stream
+    private static final class Tee extends FilterInputStream {
+        private final OutputStream mCopy;
+
+        Tee(InputStream in, OutputStream copy) {
+            super(in);
+            mCopy = copy;
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b != -1) {
+                mCopy.write(b);
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int read = super.read(b, off, len);
+            if (read > 0) {
+                mCopy.write(b, off, read);
+            }
+            return read;
+        }
+
+        // Skipped bytes are copied too
+        @Override
+        public long skip(long n) throws IOException {
+            byte[] buf = new byte[(int) Math.min(n, 8192)];
+            long skipped = 0;
+            while (skipped < n) {
+                int read = read(buf, 0, (int) Math.min(n - skipped, buf.length));
+                if (read == -1) {
+                    break;
+                }
+                skipped += read;
+            }
+            return skipped;
+        }
+
+        @Override
+        public boolean markSupported() {
+            return false;
+        }
+    }
+}
@@ -0,0 +1,216 @@
+package com.omicronapplications.m3ulib;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+
+// Finds songs referring to the same file as an earlier song, comparing normalized full paths by hash
+final class M3UDuplicates {
+    static final int IGNORE_CASE = 1;
+    static final int METADATA = 2;
+    // Smaller playlists are searched on the calling thread
+    private static final int MIN_SLICE = 4096;
+
+    private M3UDuplicates() {
+    }
+
+    // For each song, the position of the earlier song it duplicates or -1, null if interrupted
+    static int[] find(final List<M3UFile> songs, final int options) {
+        final int size = songs.size();
+        final boolean ignoreCase = (options & IGNORE_CASE) != 0;
+        final String[] paths = new String[size];
+        final String[] infos = ((options & METADATA) != 0) ? new String[size] : null;
+        final int[] pathFirsts = new int[size];
+        final int[] infoFirsts = new int[size];
+        int slices = Math.max(1, Math.min(M3UExecutor.getThreads(), size / MIN_SLICE));
+        // Keys are made for consecutive ranges of songs
+        boolean done = run(slices, new Slice() {
+            @Override
+            public void run(int slice, int slices) {
+                int to = (int) ((long) size * (slice + 1) / slices);
+                for (int i = (int) ((long) size * slice / slices); i < to; i++) {
+                    M3UFile m3u = songs.get(i);
+                    paths[i] = fold(normalize(m3u.getFullPath(), null), ignoreCase);
+                    if (infos != null) {
+                        infos[i] = info(m3u);
+                    }
+                }
+            }
+        });
+        // Each slice groups the keys with its hashes, so equal keys are seen by one thread in playlist order
+        done = done && run(slices, new Slice() {
+            @Override
+            public void run(int slice, int slices) {
+                group(paths, pathFirsts, slice, slices);
+                if (infos != null) {
+                    group(infos, infoFirsts, slice, slices);
+                }
+            }
+        });
+        if (!done) {
+            return null;
+        }
+        // A song is reported against the first song of its group, even when matched through a duplicate
+        int[] originals = new int[size];
+        for (int i = 0; i < size; i++) {
+            int original = pathFirsts[i];
+            if (infos != null && infoFirsts[i] != -1 && (original == -1 || infoFirsts[i] < original)) {
+                original = infoFirsts[i];
+            }
+            if (original != -1 && originals[original] != -1) {
+                original = originals[original];
+            }
+            originals[i] = original;
+        }
+        return originals;
+    }
+
+    // Removes empty and "." segments and resolves ".." segments, without accessing the file system
+    static String normalize(String path, String name) {
+        String full;
+        if (path == null || path.isEmpty()) {
+            full = (name != null) ? name : "";
+        } else if (name == null || name.isEmpty()) {
+            full = path;
+        } else {
+            full = path + "/" + name;
+        }
+        int length = full.length();
+        StringBuilder sb = new StringBuilder(length);
+        int start = hostLength(full);
+        sb.append(full, 0, start);
+        // Nothing goes above the root of an absolute path or an URL
+        boolean absolute = start > 0 || (length > 0 && full.charAt(0) == '/');
+        if (absolute) {
+            sb.append('/');
+        }
+        int root = sb.length();
+        // Length of the key before each segment, for dropping it again on ".."
+        int[] segments = new int[8];
+        int count = 0;
+        int parents = 0;
+        while (start <= length) {
+            int end = full.indexOf('/', start);
+            if (end == -1) {
+                end = length;
+            }
+            int segment = end - start;
+            if (segment == 0 || (segment == 1 && full.charAt(start) == '.')) {
+                // Empty or current directory
+            } else if (segment == 2 && full.charAt(start) == '.' && full.charAt(start + 1) == '.') {
+                if (count > parents) {
+                    sb.setLength(segments[--count]);
+                } else if (!absolute) {
+                    append(sb, root, "..", 0, 2);
+                    count = parents = parents + 1;
+                }
+            } else {
+                if (count >= segments.length) {
+                    segments = Arrays.copyOf(segments, 2 * count + 1);
+                }
+                segments[count++] = sb.length();
+                append(sb, root, full, start, end);
+            }
+            start = end + 1;
+        }
+        return sb.toString();
+    }
+
+    private static void append(StringBuilder sb, int root, String str, int start, int end) {
+        if (sb.length() > root) {
+            sb.append('/');
+        }
+        sb.append(str, start, end);
+    }
+
+    // Length of a "scheme://host" prefix, which is kept as it is
+    static int hostLength(String str) {
+        int colon = str.indexOf("://");
+        if (colon <= 0 || !Character.isLetter(str.charAt(0))) {
+            return 0;
+        }
+        for (int i = 1; i < colon; i++) {
+            char c = str.charAt(i);
+            if (!Character.isLetterOrDigit(c) && c != '+' && c != '-' && c != '.') {
+                return 0;
+            }
+        }
+        int slash = str.indexOf('/', colon + 3);
+        return (slash != -1) ? slash : str.length();
+    }
+
+    private static String fold(String str, boolean ignoreCase) {
+        return ignoreCase ? str.toLowerCase(Locale.ROOT) : str;
+    }
+
+    // Author, title and duration in seconds as stored in the playlist, null if the song has none
+    private static String info(M3UFile m3u) {
+        if (!m3u.extended) {
+            return null;
+        }
+        String author = (m3u.author != null) ? m3u.author.trim() : "";
+        String title = (m3u.title != null) ? m3u.title.trim() : "";
+        if (author.isEmpty() && title.isEmpty()) {
+            return null;
+        }
+        return (author + '\u0000' + title).toLowerCase(Locale.ROOT) + '\u0000' + (m3u.songlength / 1000);
+    }
+
+    private static void group(String[] keys, int[] firsts, int slice, int slices) {
+        HashMap<String, Integer> seen = new HashMap<>();
+        for (int i = 0; i < keys.length; i++) {
+            String key = keys[i];
+            if (key == null) {
+                if (slice == 0) {
+                    firsts[i] = -1;
+                }
+            } else if ((key.hashCode() & Integer.MAX_VALUE) % slices == slice) {
+                Integer first = seen.get(key);
+                if (first == null) {
+                    seen.put(key, i);
+                    firsts[i] = -1;
+                } else {
+                    firsts[i] = first;
+                }
+            }
+        }
+    }
+
+    private static boolean run(final int slices, final Slice task) {
+        if (slices == 1) {
+            task.run(0, 1);
+            return true;
+        }
+        List<Callable<Void>> calls = new ArrayList<>(slices);
+        for (int i = 0; i < slices; i++) {
+            final int slice = i;
+            calls.add(new Callable<Void>() {
+                @Override
+                public Void call() {
+                    task.run(slice, slices);
+                    return null;
+                }
+            });
+        }
+        try {
+            for (Future<Void> future : M3UExecutor.get().invokeAll(calls)) {
+                future.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        } catch (ExecutionException e) {
+            throw new IllegalStateException(e.getCause());
+        }
+        return true;
+    }
+
+    private interface Slice {
+        void run(int slice, int slices);
+    }
+}
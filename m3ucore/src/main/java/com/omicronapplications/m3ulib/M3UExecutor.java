@@ -0,0 +1,41 @@
+package com.omicronapplications.m3ulib;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+final class M3UExecutor {
+    private static final long KEEP_ALIVE = 10; // s
+    private static ThreadPoolExecutor sExecutor;
+
+    private M3UExecutor() {
+    }
+
+    static int getThreads() {
+        return Math.max(1, Runtime.getRuntime().availableProcessors());
+    }
+
+    static synchronized ExecutorService get() {
+        if (sExecutor == null) {
+            int threads = getThreads();
+            sExecutor = new ThreadPoolExecutor(threads, threads, KEEP_ALIVE, TimeUnit.SECONDS,
+                    new LinkedBlockingQueue<Runnable>(), new M3UThreadFactory());
+            sExecutor.allowCoreThreadTimeOut(true);
+        }
+        return sExecutor;
+    }
+
+    private static final class M3UThreadFactory implements ThreadFactory {
+        private final AtomicInteger mCount = new AtomicInteger();
+
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread thread = new Thread(r, "M3UExecutor-" + mCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+}
@@ -0,0 +1,310 @@
+package com.omicronapplications.m3ulib;
+
+import java.nio.ByteBuffer;
+
+// Lines before a song: its #EXTINF line with attributes, and directive lines like #EXTGRP, #EXTVLCOPT or #EXT-X-...
+final class M3UExtInf {
+    private static final String EXTINF = "#EXTINF";
+    private static final String EXTM3U = "#EXTM3U";
+    private static final String EXT = "#EXT";
+    private static final String PLAYLIST = "#PLAYLIST";
+    private final M3UAttributes mAttributes;
+    private char[] mBuf;
+    private int mEntry;
+    boolean extended;
+    long songlength;
+    String author;
+    String title;
+
+    M3UExtInf(M3UAttributes attributes) {
+        mAttributes = attributes;
+        mBuf = new char[256];
+        reset();
+    }
+
+    // Starts over for the next song
+    void reset() {
+        mEntry = M3UAttributes.NO_ENTRY;
+        extended = false;
+        songlength = 0;
+        author = "";
+        title = "";
+    }
+
+    // Creates the song on the path line that follows the lines parsed since reset()
+    M3UFile song(String song) {
+        M3UFile m3u;
+        if (extended) {
+            m3u = new M3UFile(song, author, title, songlength);
+        } else {
+            m3u = new M3UFile(song.trim());
+        }
+        attach(m3u);
+        return m3u;
+    }
+
+    void attach(M3UFile m3u) {
+        if (mEntry != M3UAttributes.NO_ENTRY) {
+            m3u.attributes = mAttributes;
+            m3u.attributeEntry = mEntry;
+        }
+    }
+
+    void line(String line) {
+        int len = line.length();
+        if (mBuf.length < len) {
+            mBuf = new char[Math.max(len, 2 * mBuf.length)];
+        }
+        line.getChars(0, len, mBuf, 0);
+        line(mBuf, 0, len);
+    }
+
+    // Parses each line of [start, end)
+    void lines(char[] buf, int start, int end) {
+        while (start < end) {
+            int lineEnd = start;
+            while (lineEnd < end && buf[lineEnd] != '\n' && buf[lineEnd] != '\r') {
+                lineEnd++;
+            }
+            line(buf, start, lineEnd);
+            start = lineEnd + 1;
+        }
+    }
+
+    // Comments other than #EXTINF and directive lines are skipped
+    void line(char[] buf, int start, int end) {
+        if (startsWith(buf, start, end, EXTINF)) {
+            parse(buf, start, end);
+        } else if ((startsWith(buf, start, end, EXT) && !startsWith(buf, start, end, EXTM3U)) || startsWith(buf, start, end, PLAYLIST)) {
+            directive(buf, start, end);
+        }
+    }
+
+    // #EXTINF:<seconds>[ key="value"...],[<author> - ]<title>, where seconds may be -1 for streams or have decimals as in HLS
+    boolean parse(char[] buf, int start, int end) {
+        if (!startsWith(buf, start, end, EXTINF)) {
+            return false;
+        }
+        int pos = skipSpace(buf, start + EXTINF.length(), end);
+        if (pos >= end || buf[pos] != ':') {
+            return false;
+        }
+        pos = skipSpace(buf, pos + 1, end);
+
+        boolean negative = pos < end && buf[pos] == '-';
+        if (negative) {
+            pos++;
+        }
+        int digits = pos;
+        long seconds = 0;
+        while (pos < end && isDigit(buf[pos])) {
+            seconds = 10 * seconds + (buf[pos] - '0');
+            if (seconds > Long.MAX_VALUE / 1000) {
+                return false;
+            }
+            pos++;
+        }
+        if (pos == digits) {
+            return false;
+        }
+        long millis = 0;
+        if (pos < end && buf[pos] == '.') {
+            pos++;
+            for (int scale = 100; pos < end && isDigit(buf[pos]); pos++, scale /= 10) {
+                millis += scale * (buf[pos] - '0');
+            }
+        }
+        int comma = comma(buf, pos, end);
+        if (comma == -1) {
+            return false;
+        }
+
+        // A second #EXTINF line replaces the first one, with the directives read so far
+        if (extended) {
+            mAttributes.discard(mEntry);
+            reset();
+        }
+        extended = true;
+        songlength = negative ? -(1000 * seconds + millis) : 1000 * seconds + millis;
+        attributes(buf, pos, comma);
+
+        int titleEnd = comma + 1;
+        while (titleEnd < end && !isLineTerminator(buf[titleEnd])) {
+            titleEnd++;
+        }
+        int dash = comma + 1;
+        while (dash < titleEnd && buf[dash] != '-') {
+            dash++;
+        }
+        if (dash < titleEnd) {
+            author = trimmed(buf, comma + 1, dash);
+            title = trimmed(buf, dash + 1, titleEnd);
+        } else {
+            author = "";
+            title = trimmed(buf, comma + 1, titleEnd);
+        }
+        return true;
+    }
+
+    // Same as parse() without decoding, all delimiters are ASCII and never part of a UTF-8 sequence
+    static boolean matches(ByteBuffer buf, int start, int end) {
+        int pos = start;
+        int len = EXTINF.length();
+        if (end - pos < len) {
+            return false;
+        }
+        for (int i = 0; i < len; i++) {
+            if (buf.get(pos++) != EXTINF.charAt(i)) {
+                return false;
+            }
+        }
+        pos = skipSpace(buf, pos, end);
+        if (pos >= end || buf.get(pos) != ':') {
+            return false;
+        }
+        pos = skipSpace(buf, pos + 1, end);
+
+        if (pos < end && buf.get(pos) == '-') {
+            pos++;
+        }
+        int digits = pos;
+        long seconds = 0;
+        while (pos < end && isDigit((char) buf.get(pos))) {
+            seconds = 10 * seconds + (buf.get(pos) - '0');
+            if (seconds > Long.MAX_VALUE / 1000) {
+                return false;
+            }
+            pos++;
+        }
+        if (pos == digits) {
+            return false;
+        }
+        boolean quoted = false;
+        for (; pos < end; pos++) {
+            byte b = buf.get(pos);
+            if (b == '"') {
+                quoted = !quoted;
+            } else if (b == ',' && !quoted) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // key="value" pairs, or key=value without spaces, between the duration and the comma
+    private void attributes(char[] buf, int pos, int end) {
+        while (true) {
+            pos = skipSpace(buf, pos, end);
+            int keyStart = pos;
+            while (pos < end && buf[pos] != '=' && !isSpace(buf[pos])) {
+                pos++;
+            }
+            if (pos == keyStart) {
+                return;
+            }
+            int keyEnd = pos;
+            int valueStart = -1;
+            int valueEnd = -1;
+            if (pos < end && buf[pos] == '=') {
+                pos++;
+                if (pos < end && buf[pos] == '"') {
+                    valueStart = ++pos;
+                    while (pos < end && buf[pos] != '"') {
+                        pos++;
+                    }
+                    valueEnd = pos;
+                    if (pos < end) {
+                        pos++;
+                    }
+                } else {
+                    valueStart = pos;
+                    while (pos < end && !isSpace(buf[pos])) {
+                        pos++;
+                    }
+                    valueEnd = pos;
+                }
+            }
+            mEntry = mAttributes.add(mEntry, M3UAttributes.ATTRIBUTE, buf, keyStart, keyEnd, valueStart, valueEnd);
+        }
+    }
+
+    // The tag up to the colon, and the rest of the line as value
+    private void directive(char[] buf, int start, int end) {
+        while (end > start && buf[end - 1] <= ' ') {
+            end--;
+        }
+        int kind = extended ? M3UAttributes.AFTER : M3UAttributes.BEFORE;
+        int colon = start;
+        while (colon < end && buf[colon] != ':') {
+            colon++;
+        }
+        if (colon < end) {
+            mEntry = mAttributes.add(mEntry, kind, buf, start, colon, colon + 1, end);
+        } else {
+            mEntry = mAttributes.add(mEntry, kind, buf, start, end, -1, -1);
+        }
+    }
+
+    // First comma outside quotes, attribute values may contain commas
+    private static int comma(char[] buf, int pos, int end) {
+        boolean quoted = false;
+        for (; pos < end; pos++) {
+            char c = buf[pos];
+            if (c == '"') {
+                quoted = !quoted;
+            } else if (c == ',' && !quoted) {
+                return pos;
+            }
+        }
+        return -1;
+    }
+
+    private static boolean startsWith(char[] buf, int start, int end, String prefix) {
+        int len = prefix.length();
+        if (end - start < len) {
+            return false;
+        }
+        for (int i = 0; i < len; i++) {
+            if (buf[start + i] != prefix.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static int skipSpace(ByteBuffer buf, int pos, int end) {
+        while (pos < end && isSpace((char) buf.get(pos))) {
+            pos++;
+        }
+        return pos;
+    }
+
+    private static int skipSpace(char[] buf, int pos, int end) {
+        while (pos < end && isSpace(buf[pos])) {
+            pos++;
+        }
+        return pos;
+    }
+
+    private static boolean isDigit(char c) {
+        return c >= '0' && c <= '9';
+    }
+
+    private static boolean isSpace(char c) {
+        return c == ' ' || c == '\t' || c == '\n' || c == 0x0B || c == '\f' || c == '\r';
+    }
+
+    private static boolean isLineTerminator(char c) {
+        return c == '\n' || c == '\r' || c == '\u0085' || c == '\u2028' || c == '\u2029';
+    }
+
+    private static String trimmed(char[] buf, int start, int end) {
+        while (start < end && buf[start] <= ' ') {
+            start++;
+        }
+        while (end > start && buf[end - 1] <= ' ') {
+            end--;
+        }
+        return (start == end) ? "" : new String(buf, start, end - start);
+    }
+}
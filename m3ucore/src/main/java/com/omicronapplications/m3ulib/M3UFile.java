@@ -0,0 +1,192 @@
+package com.omicronapplications.m3ulib;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+public class M3UFile {
+    public M3UFile(String song) {
+        if (song != null) {
+            this.path = parent(song);
+            this.name = name(song);
+        } else {
+            this.path = "";
+            this.name = "";
+        }
+        this.author = "";
+        this.title = "";
+        this.songlength = 0;
+        this.extended = false;
+    }
+
+    public M3UFile(String path, String name) {
+        this.path = path != null ? path : "";
+        this.name = name != null ? name : "";
+        this.author = "";
+        this.title = "";
+        this.songlength = 0;
+        this.extended = false;
+    }
+
+    public M3UFile(String song, String author, String title, long songlength) {
+        if (song != null) {
+            this.path = parent(song);
+            this.name = name(song);
+        } else {
+            this.path = "";
+            this.name = "";
+        }
+        this.author = author;
+        this.title = title;
+        this.songlength = songlength;
+        this.extended = true;
+    }
+
+    public M3UFile(String path, String name, String author, String title, long songlength) {
+        this.path = path != null ? path : "";
+        this.name = name != null ? name : "";
+        this.author = author;
+        this.title = title;
+        this.songlength = songlength;
+        this.extended = true;
+    }
+
+    // Relative songs are resolved against the directory or URL of the playlist they were read from, once per song
+    public String getFullPath() {
+        M3UResolver.Resolved last = resolved;
+        if (last != null && last.path == path && last.name == name) {
+            return last.fullPath;
+        }
+        String fullPath = ((resolver != null) ? resolver : M3UResolver.getDefault()).resolve(path, name);
+        resolved = new M3UResolver.Resolved(path, name, fullPath);
+        return fullPath;
+    }
+
+    public File getFile() {
+        if (path == null && name == null) {
+            return null;
+        }
+        return new File(getFullPath());
+    }
+
+    public long getLength() {
+        File f = new File(path);
+        return f.length();
+    }
+
+    // Formatted as MM:SS, or H:MM:SS from one hour on
+    public String getElapsedTimeInS() {
+        int lengthInMs = (int) songlength;
+        int lengthInS = Math.max(0, lengthInMs / 1000);
+        int hours = lengthInS / 3600;
+        int minutes = (lengthInS / 60) % 60;
+        int seconds = lengthInS % 60;
+        StringBuilder sb = new StringBuilder(8);
+        if (hours > 0) {
+            sb.append(hours).append(':');
+        }
+        appendTwoDigits(sb, minutes);
+        sb.append(':');
+        appendTwoDigits(sb, seconds);
+        return sb.toString();
+    }
+
+    private static void appendTwoDigits(StringBuilder sb, int value) {
+        sb.append((char) ('0' + value / 10)).append((char) ('0' + value % 10));
+    }
+
+    // Attribute of the #EXTINF line like tvg-id or group-title, or null if the song does not have it
+    public String getAttribute(String key) {
+        decode();
+        return (attributes != null) ? attributes.find(attributeEntry, false, key) : null;
+    }
+
+    public Map<String, String> getAttributes() {
+        decode();
+        if (attributes == null) {
+            return Collections.emptyMap();
+        }
+        Map<String, String> map = new LinkedHashMap<>();
+        attributes.attributes(attributeEntry, map);
+        return map;
+    }
+
+    // Value of the first directive line with the tag like #EXTGRP, "" if it has no value, or null if there is none
+    public String getDirective(String tag) {
+        decode();
+        return (attributes != null) ? attributes.find(attributeEntry, true, tag) : null;
+    }
+
+    // Directive lines like #EXTVLCOPT:http-user-agent=... in playlist order
+    public List<String> getDirectives() {
+        decode();
+        if (attributes == null) {
+            return Collections.emptyList();
+        }
+        List<String> list = new ArrayList<>();
+        attributes.directives(attributeEntry, list);
+        return list;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (this == obj) {
+            return true;
+        }
+        if (!(obj instanceof M3UFile)) {
+            return false;
+        }
+        M3UFile other = (M3UFile) obj;
+        return equals(path, other.path) &&
+                equals(name, other.name);
+    }
+
+    @Override
+    public int hashCode() {
+        int hash = (path != null) ? path.hashCode() : 0;
+        return 31 * hash + ((name != null) ? name.hashCode() : 0);
+    }
+
+    // Fills in fields read lazily from the playlist file, called when a song is taken from a playlist
+    void decode() {
+    }
+
+    // URLs are split at their last slash, File would merge the slashes of "http://"
+    private static String parent(String song) {
+        int host = M3UDuplicates.hostLength(song);
+        if (host == 0) {
+            return new File(song).getParent();
+        }
+        int slash = song.lastIndexOf('/');
+        return (slash >= host) ? song.substring(0, slash) : null;
+    }
+
+    private static String name(String song) {
+        int host = M3UDuplicates.hostLength(song);
+        if (host == 0) {
+            return new File(song).getName();
+        }
+        int slash = song.lastIndexOf('/');
+        return (slash >= host) ? song.substring(slash + 1) : song;
+    }
+
+    private static boolean equals(Object obj1, Object obj2) {
+        return (obj1 == obj2) || (obj1 != null && obj1.equals(obj2));
+    }
+
+    public String path;
+    public String name;
+    public String author;
+    public String title;
+    public long songlength;
+    public boolean extended;
+    // Entry in the attribute table shared by the songs of a playlist, if the song has attributes or directives
+    M3UAttributes attributes;
+    int attributeEntry;
+    // Resolver of the playlist the song was read from, and the full path last resolved
+    M3UResolver resolver;
+    private M3UResolver.Resolved resolved;
+}
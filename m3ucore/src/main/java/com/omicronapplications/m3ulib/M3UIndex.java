@@ -0,0 +1,177 @@
+package com.omicronapplications.m3ulib;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+// Byte offsets of the songs in a playlist file, for reading songs without loading the playlist
+final class M3UIndex {
+    private static final int MAGIC = 0x4D335549; // M3UI
+    private static final int VERSION = 1;
+    private final File mList;
+    private final long mLength;
+    private final long mModified;
+    private final Charset mCharset;
+    private final int[] mOffsets;
+    private final int mCount;
+    // Songs from this position on follow the #EXTM3U header
+    private final int mExtendedFrom;
+    private final M3UResolver mResolver;
+
+    private M3UIndex(File list, long length, long modified, Charset charset, int[] offsets, int count, int extendedFrom) {
+        mList = list;
+        mLength = length;
+        mModified = modified;
+        mCharset = charset;
+        mOffsets = offsets;
+        mCount = count;
+        mExtendedFrom = extendedFrom;
+        mResolver = new M3UResolver(list);
+    }
+
+    static File getIndexFile(File dir, File list) {
+        String path = list.getAbsolutePath();
+        return new File(dir, list.getName() + "-" + Integer.toHexString(path.hashCode()) + ".m3ui");
+    }
+
+    // Returns null if the playlist cannot be split on bytes
+    static M3UIndex build(File list) throws IOException {
+        long length = list.length();
+        long modified = list.lastModified();
+        M3UReader reader = new M3UReader(list);
+        try {
+            if (!reader.isBuffered()) {
+                return null;
+            }
+            int[] offsets = new int[1024];
+            int count = 0;
+            int extendedFrom = -1;
+            int offset = reader.nextOffset();
+            while (offset != -1) {
+                if (count == offsets.length) {
+                    offsets = Arrays.copyOf(offsets, 2 * count);
+                }
+                if (extendedFrom == -1 && reader.isExtended()) {
+                    extendedFrom = count;
+                }
+                offsets[count++] = offset;
+                offset = reader.nextOffset();
+            }
+            if (extendedFrom == -1) {
+                extendedFrom = count;
+            }
+            return new M3UIndex(list, length, modified, reader.getCharset(), Arrays.copyOf(offsets, count), count, extendedFrom);
+        } finally {
+            reader.close();
+        }
+    }
+
+    // Returns null if there is no index, or it does not match the playlist file
+    static M3UIndex read(File index, File list) throws IOException {
+        if (!index.exists()) {
+            return null;
+        }
+        DataInputStream ds = new DataInputStream(new BufferedInputStream(new FileInputStream(index)));
+        try {
+            if (ds.readInt() != MAGIC || ds.readInt() != VERSION) {
+                return null;
+            }
+            long length = ds.readLong();
+            long modified = ds.readLong();
+            if (length != list.length() || modified != list.lastModified() || ds.readLong() != M3UCache.hash(list)) {
+                return null;
+            }
+            Charset charset = Charset.forName(ds.readUTF());
+            int extendedFrom = ds.readInt();
+            int count = ds.readInt();
+            int[] offsets = new int[count];
+            for (int i = 0; i < count; i++) {
+                offsets[i] = ds.readInt();
+            }
+            return new M3UIndex(list, length, modified, charset, offsets, count, extendedFrom);
+        } catch (EOFException e) {
+            throw new IOException("truncated index: " + index.getAbsolutePath());
+        } catch (IllegalArgumentException | NegativeArraySizeException e) {
+            throw new IOException("corrupt index: " + index.getAbsolutePath());
+        } finally {
+            ds.close();
+        }
+    }
+
+    void write(File index) throws IOException {
+        File temp = new File(index.getPath() + ".tmp");
+        FileOutputStream fs = new FileOutputStream(temp);
+        DataOutputStream ds = new DataOutputStream(new BufferedOutputStream(fs));
+        try {
+            ds.writeInt(MAGIC);
+            ds.writeInt(VERSION);
+            ds.writeLong(mLength);
+            ds.writeLong(mModified);
+            ds.writeLong(M3UCache.hash(mList));
+            ds.writeUTF(mCharset.name());
+            ds.writeInt(mExtendedFrom);
+            ds.writeInt(mCount);
+            for (int i = 0; i < mCount; i++) {
+                ds.writeInt(mOffsets[i]);
+            }
+            ds.flush();
+            fs.getFD().sync();
+        } finally {
+            ds.close();
+        }
+        if (!temp.renameTo(index)) {
+            temp.delete();
+            throw new IOException("rename failed: " + temp.getAbsolutePath());
+        }
+    }
+
+    File getList() {
+        return mList;
+    }
+
+    boolean isValid() {
+        return mList.length() == mLength && mList.lastModified() == mModified;
+    }
+
+    int getCount() {
+        return mCount;
+    }
+
+    // Reads songs [from, to) with a single seek
+    List<M3UFile> read(int from, int to) throws IOException {
+        from = Math.max(0, from);
+        to = Math.min(mCount, to);
+        List<M3UFile> songs = new ArrayList<>(Math.max(0, to - from));
+        if (from >= to) {
+            return songs;
+        }
+        long start = mOffsets[from];
+        long end = (to < mCount) ? mOffsets[to] : mLength;
+        byte[] bytes = new byte[(int) (end - start)];
+        RandomAccessFile raf = new RandomAccessFile(mList, "r");
+        try {
+            raf.seek(start);
+            raf.readFully(bytes);
+        } finally {
+            raf.close();
+        }
+        M3UReader reader = new M3UReader(ByteBuffer.wrap(bytes), mCharset);
+        reader.setExtended(from >= mExtendedFrom);
+        reader.setResolver(mResolver);
+        reader.read(songs, to - from);
+        reader.close();
+        return songs;
+    }
+}
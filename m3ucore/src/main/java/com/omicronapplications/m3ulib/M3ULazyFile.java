@@ -0,0 +1,58 @@
+package com.omicronapplications.m3ulib;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+
+// Song whose #EXTINF and directive lines are decoded when it is first taken from a playlist
+final class M3ULazyFile extends M3UFile {
+    private volatile Source mSource;
+    private final int mStart;
+    private final int mEnd;
+
+    M3ULazyFile(String song, Source source, int start, int end, boolean extended) {
+        super(song, extended ? null : "", extended ? null : "", 0);
+        this.extended = extended;
+        mSource = source;
+        mStart = start;
+        mEnd = end;
+    }
+
+    @Override
+    void decode() {
+        if (mSource == null) {
+            return;
+        }
+        synchronized (this) {
+            Source source = mSource;
+            if (source != null) {
+                source.decode(this, mStart, mEnd);
+                mSource = null;
+            }
+        }
+    }
+
+    // Playlist bytes and decoding state shared by all songs read from one file
+    static final class Source {
+        private final M3UDecoder mDecoder;
+        private final M3UExtInf mExtInf;
+        private final M3UStrings mAuthors;
+
+        Source(ByteBuffer buffer, Charset charset) {
+            mDecoder = new M3UDecoder(buffer, charset);
+            mExtInf = new M3UExtInf(new M3UAttributes());
+            mAuthors = new M3UStrings();
+        }
+
+        synchronized void decode(M3UFile m3u, int start, int end) {
+            int len = mDecoder.decode(start, end);
+            mExtInf.reset();
+            mExtInf.lines(mDecoder.chars(), 0, len);
+            if (mExtInf.extended) {
+                m3u.author = mAuthors.share(mExtInf.author);
+                m3u.title = mExtInf.title;
+                m3u.songlength = mExtInf.songlength;
+            }
+            mExtInf.attach(m3u);
+        }
+    }
+}
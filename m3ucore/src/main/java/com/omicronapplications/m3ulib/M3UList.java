@@ -0,0 +1,90 @@
+package com.omicronapplications.m3ulib;
+
+import java.util.AbstractList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.RandomAccess;
+
+// Immutable playlist snapshot, sharing song chunks with the playlist it was taken from.
+// The songs themselves are shared too and must not be changed, a song is updated by replacing it in the playlist.
+public final class M3UList extends AbstractList<M3UFile> implements RandomAccess {
+    static final int SHIFT = 8;
+    static final int CHUNK = 1 << SHIFT;
+    static final int MASK = CHUNK - 1;
+    private final M3UFile[][] mChunks;
+    private final int mSize;
+    private final long mVersion;
+    private volatile HashMap<M3UFile, Integer> mIndex;
+
+    M3UList(M3UFile[][] chunks, int size, long version) {
+        mChunks = chunks;
+        mSize = size;
+        mVersion = version;
+        mIndex = null;
+    }
+
+    static M3UList of(List<M3UFile> songs) {
+        int size = songs.size();
+        M3UFile[][] chunks = new M3UFile[(size + MASK) >> SHIFT][];
+        for (int i = 0; i < chunks.length; i++) {
+            chunks[i] = new M3UFile[CHUNK];
+        }
+        for (int i = 0; i < size; i++) {
+            chunks[i >> SHIFT][i & MASK] = songs.get(i);
+        }
+        return new M3UList(chunks, size, 0);
+    }
+
+    public long getVersion() {
+        return mVersion;
+    }
+
+    @Override
+    public M3UFile get(int index) {
+        if (index < 0 || index >= mSize) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + mSize);
+        }
+        M3UFile m3u = mChunks[index >> SHIFT][index & MASK];
+        m3u.decode();
+        return m3u;
+    }
+
+    @Override
+    public int size() {
+        return mSize;
+    }
+
+    @Override
+    public boolean contains(Object o) {
+        return indexOf(o) != -1;
+    }
+
+    @Override
+    public int indexOf(Object o) {
+        if (!(o instanceof M3UFile)) {
+            return -1;
+        }
+        Integer index = getIndex().get(o);
+        return (index != null) ? index : -1;
+    }
+
+    private HashMap<M3UFile, Integer> getIndex() {
+        HashMap<M3UFile, Integer> index = mIndex;
+        if (index == null) {
+            synchronized (this) {
+                index = mIndex;
+                if (index == null) {
+                    index = new HashMap<>(2 * mSize);
+                    for (int i = 0; i < mSize; i++) {
+                        M3UFile m3u = mChunks[i >> SHIFT][i & MASK];
+                        if (!index.containsKey(m3u)) {
+                            index.put(m3u, i);
+                        }
+                    }
+                    mIndex = index;
+                }
+            }
+        }
+        return index;
+    }
+}
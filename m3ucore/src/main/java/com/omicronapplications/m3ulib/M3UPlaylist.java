@@ -0,0 +1,394 @@
+package com.omicronapplications.m3ulib;
+
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.RandomAccess;
+import java.util.Set;
+
+public class M3UPlaylist extends AbstractList<M3UFile> implements RandomAccess {
+    // Songs in fixed-size chunks, copied before writing once shared with a snapshot
+    private M3UFile[][] mChunks;
+    private boolean[] mOwned;
+    private int mChunkCount;
+    private int mSize;
+    private long mVersion;
+    // First position of each song, valid for positions below mIndexed
+    private final HashMap<M3UFile, Integer> mIndex;
+    private int mIndexed;
+    // Changes since the last takeChanges(), null when not recording
+    private List<M3UChange> mChanges;
+
+    public M3UPlaylist() {
+        mChunks = new M3UFile[4][];
+        mOwned = new boolean[4];
+        mChunkCount = 0;
+        mSize = 0;
+        mVersion = 0;
+        mIndex = new HashMap<>();
+        mIndexed = 0;
+        mChanges = null;
+    }
+
+    public M3UPlaylist(Collection<M3UFile> songs) {
+        this();
+        addAll(songs);
+    }
+
+    public long getVersion() {
+        return mVersion;
+    }
+
+    // Shares all chunks with the snapshot, later changes copy only the chunks they touch
+    public M3UList snapshot() {
+        Arrays.fill(mOwned, 0, mChunkCount, false);
+        return new M3UList(Arrays.copyOf(mChunks, mChunkCount), mSize, mVersion);
+    }
+
+    void setRecording(boolean recording) {
+        mChanges = recording ? new ArrayList<M3UChange>() : null;
+    }
+
+    List<M3UChange> takeChanges() {
+        List<M3UChange> changes = mChanges;
+        if (changes == null) {
+            return new ArrayList<>();
+        }
+        mChanges = new ArrayList<>();
+        return changes;
+    }
+
+    @Override
+    public M3UFile get(int index) {
+        M3UFile m3u = at(index);
+        m3u.decode();
+        return m3u;
+    }
+
+    // Song at a position as it is stored, a lazy song is not decoded
+    M3UFile at(int index) {
+        if (index < 0 || index >= mSize) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + mSize);
+        }
+        return mChunks[index >> M3UList.SHIFT][index & M3UList.MASK];
+    }
+
+    @Override
+    public int size() {
+        return mSize;
+    }
+
+    @Override
+    public boolean contains(Object o) {
+        return indexOf(o) != -1;
+    }
+
+    @Override
+    public int indexOf(Object o) {
+        if (!(o instanceof M3UFile)) {
+            return -1;
+        }
+        ensureIndexed();
+        Integer index = mIndex.get(o);
+        return (index != null) ? index : -1;
+    }
+
+    @Override
+    public boolean add(M3UFile m3u) {
+        int size = mSize;
+        append(m3u);
+        if (mIndexed == size) {
+            if (!mIndex.containsKey(m3u)) {
+                mIndex.put(m3u, size);
+            }
+            mIndexed++;
+        }
+        record(M3UChange.INSERTED, size, 1);
+        changed();
+        return true;
+    }
+
+    @Override
+    public void add(int index, M3UFile m3u) {
+        if (index < 0 || index > mSize) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + mSize);
+        }
+        if (index == mSize) {
+            add(m3u);
+        } else {
+            ensureIndexed();
+            append(null);
+            for (int i = mSize - 1; i > index; i--) {
+                store(i, at(i - 1));
+            }
+            store(index, m3u);
+            invalidate(index);
+            record(M3UChange.INSERTED, index, 1);
+            changed();
+        }
+    }
+
+    @Override
+    public M3UFile set(int index, M3UFile m3u) {
+        ensureIndexed();
+        M3UFile old = get(index);
+        store(index, m3u);
+        if (old.equals(m3u)) {
+            // Same path and name with new metadata, the positions of all songs are unchanged
+            Integer first = mIndex.get(old);
+            if (first != null && first == index) {
+                mIndex.remove(old);
+                mIndex.put(m3u, index);
+            }
+        } else {
+            unindex(old, index);
+            invalidate(index);
+        }
+        record(M3UChange.UPDATED, index, 1);
+        mVersion++;
+        return old;
+    }
+
+    @Override
+    public M3UFile remove(int index) {
+        ensureIndexed();
+        M3UFile old = get(index);
+        for (int i = index; i < mSize - 1; i++) {
+            store(i, at(i + 1));
+        }
+        truncate(mSize - 1);
+        unindex(old, index);
+        invalidate(index);
+        record(M3UChange.REMOVED, index, 1);
+        changed();
+        return old;
+    }
+
+    @Override
+    public boolean remove(Object o) {
+        int index = indexOf(o);
+        if (index == -1) {
+            return false;
+        }
+        remove(index);
+        return true;
+    }
+
+    @Override
+    public boolean removeAll(Collection<?> c) {
+        Set<?> songs = (c instanceof Set) ? (Set<?>) c : new HashSet<>(c);
+        BitSet positions = new BitSet(mSize);
+        for (int i = 0; i < mSize; i++) {
+            if (songs.contains(at(i))) {
+                positions.set(i);
+            }
+        }
+        return removeAt(positions);
+    }
+
+    // Removes the songs at the given positions in one pass
+    boolean removeAt(BitSet positions) {
+        ensureIndexed();
+        int size = mSize;
+        int kept = 0;
+        for (int i = 0; i < size; i++) {
+            M3UFile m3u = at(i);
+            if (!positions.get(i)) {
+                if (kept != i) {
+                    store(kept, m3u);
+                }
+                kept++;
+            } else {
+                unindex(m3u, i);
+                invalidate(kept);
+                record(M3UChange.REMOVED, kept, 1);
+            }
+        }
+        if (kept == size) {
+            return false;
+        }
+        truncate(kept);
+        changed();
+        return true;
+    }
+
+    // Moves the song at from so that it ends up at to, shifting the songs in between
+    public void move(int from, int to) {
+        if (from < 0 || from >= mSize || to < 0 || to >= mSize) {
+            throw new IndexOutOfBoundsException("From: " + from + ", To: " + to + ", Size: " + mSize);
+        }
+        if (from == to) {
+            return;
+        }
+        ensureIndexed();
+        M3UFile m3u = at(from);
+        if (from < to) {
+            for (int i = from; i < to; i++) {
+                store(i, at(i + 1));
+            }
+        } else {
+            for (int i = from; i > to; i--) {
+                store(i, at(i - 1));
+            }
+        }
+        store(to, m3u);
+        invalidate(Math.min(from, to));
+        record(M3UChange.MOVED, from, 1, to);
+        changed();
+    }
+
+    // Replaces the order of the songs with a permutation of them, returns false if the order is unchanged
+    boolean reorder(M3UFile[] songs) {
+        if (songs.length != mSize) {
+            throw new IllegalArgumentException("Length: " + songs.length + ", Size: " + mSize);
+        }
+        int first = 0;
+        while (first < mSize && at(first) == songs[first]) {
+            first++;
+        }
+        if (first == mSize) {
+            return false;
+        }
+        int last = mSize - 1;
+        while (at(last) == songs[last]) {
+            last--;
+        }
+        ensureIndexed();
+        for (int i = first; i <= last; i++) {
+            store(i, songs[i]);
+        }
+        invalidate(first);
+        record(M3UChange.UPDATED, first, last - first + 1);
+        changed();
+        return true;
+    }
+
+    @Override
+    public void clear() {
+        if (mSize > 0) {
+            record(M3UChange.REMOVED, 0, mSize);
+        }
+        mChunks = new M3UFile[4][];
+        mOwned = new boolean[4];
+        mChunkCount = 0;
+        mSize = 0;
+        mIndex.clear();
+        mIndexed = 0;
+        changed();
+    }
+
+    private void changed() {
+        modCount++;
+        mVersion++;
+    }
+
+    private void record(int type, int index, int count) {
+        record(type, index, count, -1);
+    }
+
+    // Extends the last change when the new one continues the same range
+    private void record(int type, int index, int count, int toIndex) {
+        if (mChanges == null) {
+            return;
+        }
+        int last = mChanges.size() - 1;
+        if (last >= 0) {
+            M3UChange change = mChanges.get(last);
+            if (change.type == type) {
+                int start = -1;
+                if (type == M3UChange.INSERTED && index >= change.index && index <= change.index + change.count) {
+                    start = change.index;
+                } else if (type == M3UChange.REMOVED && index == change.index) {
+                    start = index;
+                } else if (type == M3UChange.REMOVED && index + count == change.index) {
+                    start = index;
+                } else if (type == M3UChange.UPDATED && index == change.index + change.count) {
+                    start = change.index;
+                }
+                if (start != -1) {
+                    mChanges.set(last, new M3UChange(type, start, change.count + count, -1));
+                    return;
+                }
+            }
+        }
+        mChanges.add(new M3UChange(type, index, count, toIndex));
+    }
+
+    private void append(M3UFile m3u) {
+        if (mSize == mChunkCount << M3UList.SHIFT) {
+            if (mChunkCount == mChunks.length) {
+                mChunks = Arrays.copyOf(mChunks, 2 * mChunkCount);
+                mOwned = Arrays.copyOf(mOwned, 2 * mChunkCount);
+            }
+            mChunks[mChunkCount] = new M3UFile[M3UList.CHUNK];
+            mOwned[mChunkCount] = true;
+            mChunkCount++;
+        }
+        mSize++;
+        store(mSize - 1, m3u);
+    }
+
+    private void store(int index, M3UFile m3u) {
+        int chunk = index >> M3UList.SHIFT;
+        if (!mOwned[chunk]) {
+            mChunks[chunk] = mChunks[chunk].clone();
+            mOwned[chunk] = true;
+        }
+        mChunks[chunk][index & M3UList.MASK] = m3u;
+    }
+
+    private void truncate(int size) {
+        int chunks = (size + M3UList.MASK) >> M3UList.SHIFT;
+        if (chunks > 0) {
+            for (int i = size; i < Math.min(mSize, chunks << M3UList.SHIFT); i++) {
+                store(i, null);
+            }
+        }
+        for (int i = chunks; i < mChunkCount; i++) {
+            mChunks[i] = null;
+            mOwned[i] = false;
+        }
+        mChunkCount = chunks;
+        mSize = size;
+    }
+
+    private void unindex(M3UFile m3u, int index) {
+        Integer first = mIndex.get(m3u);
+        if (first != null && first == index) {
+            mIndex.remove(m3u);
+        }
+    }
+
+    private void invalidate(int index) {
+        if (index < mIndexed) {
+            mIndexed = index;
+        }
+    }
+
+    // Positions from mIndexed onwards may be stale, so drop and re-add them in list order
+    private void ensureIndexed() {
+        int size = mSize;
+        if (mIndexed == size) {
+            return;
+        }
+        for (int i = mIndexed; i < size; i++) {
+            M3UFile m3u = at(i);
+            Integer index = mIndex.get(m3u);
+            if (index != null && index >= mIndexed) {
+                mIndex.remove(m3u);
+            }
+        }
+        for (int i = mIndexed; i < size; i++) {
+            M3UFile m3u = at(i);
+            if (!mIndex.containsKey(m3u)) {
+                mIndex.put(m3u, i);
+            }
+        }
+        mIndexed = size;
+    }
+}
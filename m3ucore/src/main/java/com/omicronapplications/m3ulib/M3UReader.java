@@ -0,0 +1,374 @@
+package com.omicronapplications.m3ulib;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.List;
+import java.util.Locale;
+
+public class M3UReader implements Closeable {
+    private static final String EXTM3U = "#EXTM3U";
+    private static final String EXTINF = "#EXTINF";
+    private static final String BOM = "\ufeff";
+    private static final byte[] EXTM3U_BYTES = EXTM3U.getBytes(M3UDecoder.ISO_8859_1);
+    private static final byte[] EXTINF_BYTES = EXTINF.getBytes(M3UDecoder.ISO_8859_1);
+    private static final byte[] EXT_BYTES = "#EXT".getBytes(M3UDecoder.ISO_8859_1);
+    private static final byte[] PLAYLIST_BYTES = "#PLAYLIST".getBytes(M3UDecoder.ISO_8859_1);
+    private final BufferedReader mReader;
+    private final FileChannel mChannel;
+    private final ByteBuffer mBuffer;
+    private final M3UDecoder mDecoder;
+    private final Charset mCharset;
+    private final M3UExtInf mExtInf;
+    private final M3UStrings mShared;
+    private final M3ULazyFile.Source mLazy;
+    private M3UResolver mResolver;
+    private int mPos;
+    private int mLineStart;
+    private int mLineEnd;
+    private int mBlockStart;
+    private int mBlockEnd;
+    private boolean mInf;
+    private boolean mExtended;
+    private boolean mStarted;
+    private int mCount;
+
+    public M3UReader(Reader reader) {
+        if (reader instanceof BufferedReader) {
+            mReader = (BufferedReader) reader;
+        } else {
+            mReader = new BufferedReader(reader);
+        }
+        mChannel = null;
+        mBuffer = null;
+        mDecoder = null;
+        mLazy = null;
+        mCharset = null;
+        mExtInf = new M3UExtInf(new M3UAttributes());
+        mShared = new M3UStrings();
+        mExtended = false;
+        mStarted = false;
+        mCount = 0;
+    }
+
+    public M3UReader(ByteBuffer buffer, Charset charset) {
+        if (isSplittable(charset)) {
+            mReader = null;
+            mBuffer = buffer;
+            mDecoder = new M3UDecoder(buffer, charset);
+            mPos = M3UDecoder.UTF_8.equals(charset) ? M3UDecoder.bomLength(buffer) : 0;
+        } else {
+            // Not splittable on bytes, decoded as a stream instead
+            ByteBuffer bytes = buffer.duplicate();
+            bytes.position(M3UDecoder.bomLength(buffer));
+            mReader = new BufferedReader(new InputStreamReader(new BufferStream(bytes), charset));
+            mBuffer = null;
+            mDecoder = null;
+        }
+        mChannel = null;
+        mLazy = null;
+        mCharset = charset;
+        mExtInf = new M3UExtInf(new M3UAttributes());
+        mShared = new M3UStrings();
+        mExtended = false;
+        mStarted = false;
+        mCount = 0;
+    }
+
+    public M3UReader(File list) throws IOException {
+        this(list, false);
+    }
+
+    // Lazy songs keep the file contents on the heap, and decode their #EXTINF and directive lines when first taken from a playlist
+    public M3UReader(File list, boolean lazy) throws IOException {
+        FileInputStream fs = new FileInputStream(list);
+        FileChannel channel = fs.getChannel();
+        ByteBuffer buffer = null;
+        Charset charset = null;
+        try {
+            long size = channel.size();
+            if (size <= Integer.MAX_VALUE) {
+                if (lazy) {
+                    buffer = readFully(fs, (int) size);
+                } else {
+                    buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+                }
+                charset = M3UDecoder.detect(buffer, list.getName());
+            }
+        } catch (IOException e) {
+            fs.close();
+            throw e;
+        }
+
+        if (buffer != null && isSplittable(charset)) {
+            mReader = null;
+            mBuffer = buffer;
+            mDecoder = new M3UDecoder(buffer, charset);
+            mPos = M3UDecoder.UTF_8.equals(charset) ? M3UDecoder.bomLength(buffer) : 0;
+            if (lazy) {
+                fs.close();
+                mChannel = null;
+                mLazy = new M3ULazyFile.Source(buffer, charset);
+            } else {
+                mChannel = channel;
+                mLazy = null;
+            }
+        } else {
+            // Too large to map, or not splittable on bytes
+            InputStream is = fs;
+            if (buffer != null && lazy) {
+                fs.close();
+                int bom = M3UDecoder.bomLength(buffer);
+                is = new ByteArrayInputStream(buffer.array(), bom, buffer.limit() - bom);
+            } else if (buffer != null) {
+                fs.skip(M3UDecoder.bomLength(buffer));
+            } else {
+                charset = M3UDecoder.UTF_8;
+            }
+            mReader = new BufferedReader(new InputStreamReader(is, charset));
+            mChannel = null;
+            mBuffer = null;
+            mDecoder = null;
+            mLazy = null;
+        }
+        mCharset = charset;
+        mExtInf = new M3UExtInf(new M3UAttributes());
+        mShared = new M3UStrings();
+        mResolver = new M3UResolver(list);
+        mExtended = false;
+        mStarted = false;
+        mCount = 0;
+    }
+
+    public M3UFile next() throws IOException {
+        if (mBuffer != null) {
+            return nextMapped();
+        }
+
+        mExtInf.reset();
+        String str = mReader.readLine();
+        // A byte order mark left by the caller of M3UReader(Reader)
+        if (str != null && !mStarted && str.startsWith(BOM)) {
+            str = str.substring(1);
+        }
+        mStarted = true;
+        while (str != null) {
+            if (str.startsWith(EXTM3U)) {
+                mExtended = true;
+            } else if (mExtended && str.startsWith("#")) {
+                mExtInf.line(str);
+            } else if (!str.isEmpty() && !str.startsWith("#")) {
+                mCount++;
+                return share(mExtInf.song(str));
+            }
+            str = mReader.readLine();
+        }
+        return null;
+    }
+
+    private M3UFile nextMapped() {
+        if (!nextEntry()) {
+            return null;
+        }
+        String song = mDecoder.decodeString(mLineStart, mLineEnd);
+        if (mBlockStart == -1) {
+            return share(new M3UFile(song.trim()));
+        }
+        if (mLazy != null) {
+            return share(new M3ULazyFile(song, mLazy, mBlockStart, mBlockEnd, mInf));
+        }
+        int len = mDecoder.decode(mBlockStart, mBlockEnd);
+        mExtInf.reset();
+        mExtInf.lines(mDecoder.chars(), 0, len);
+        return share(mExtInf.song(song));
+    }
+
+    // Finds the next song, leaving its path line in [mLineStart, mLineEnd), and its #EXTINF and directive lines, if any, in [mBlockStart, mBlockEnd)
+    private boolean nextEntry() {
+        mBlockStart = -1;
+        mInf = false;
+        while (nextLine()) {
+            if (startsWith(EXTM3U_BYTES)) {
+                mExtended = true;
+            } else if (mExtended && startsWith(EXTINF_BYTES)) {
+                if (M3UExtInf.matches(mBuffer, mLineStart, mLineEnd)) {
+                    startBlock();
+                    mInf = true;
+                }
+            } else if (mExtended && (startsWith(EXT_BYTES) || startsWith(PLAYLIST_BYTES))) {
+                startBlock();
+            } else if (mLineEnd > mLineStart && mBuffer.get(mLineStart) != '#') {
+                mBlockEnd = mLineStart;
+                mCount++;
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void startBlock() {
+        if (mBlockStart == -1) {
+            mBlockStart = mLineStart;
+        }
+    }
+
+    // Byte offset of the next song, without decoding it, or -1 after the last song
+    int nextOffset() {
+        if (mBuffer == null || !nextEntry()) {
+            return -1;
+        }
+        return (mBlockStart != -1) ? mBlockStart : mLineStart;
+    }
+
+    boolean isBuffered() {
+        return mBuffer != null;
+    }
+
+    // Relative songs are resolved against the playlist file by default, or the working directory when reading from a stream
+    void setResolver(M3UResolver resolver) {
+        mResolver = resolver;
+    }
+
+    // For reading from the middle of a playlist, after its #EXTM3U header
+    void setExtended(boolean extended) {
+        mExtended = extended;
+    }
+
+    private static ByteBuffer readFully(InputStream is, int size) throws IOException {
+        byte[] bytes = new byte[size];
+        int len = 0;
+        while (len < size) {
+            int read = is.read(bytes, len, size - len);
+            if (read < 0) {
+                break;
+            }
+            len += read;
+        }
+        return ByteBuffer.wrap(bytes, 0, len);
+    }
+
+    // Songs in the same directory or by the same author refer to the same strings
+    private M3UFile share(M3UFile m3u) {
+        m3u.path = mShared.share(m3u.path);
+        m3u.resolver = mResolver;
+        if (m3u.extended) {
+            m3u.author = mShared.share(m3u.author);
+        }
+        return m3u;
+    }
+
+    // Splits on \n, \r or \r\n like BufferedReader.readLine(), without decoding
+    private boolean nextLine() {
+        int limit = mBuffer.limit();
+        if (mPos >= limit) {
+            return false;
+        }
+        int pos = mPos;
+        while (pos < limit) {
+            byte b = mBuffer.get(pos);
+            if (b == '\n' || b == '\r') {
+                break;
+            }
+            pos++;
+        }
+        mLineStart = mPos;
+        mLineEnd = pos;
+        if (pos < limit) {
+            byte b = mBuffer.get(pos++);
+            if (b == '\r' && pos < limit && mBuffer.get(pos) == '\n') {
+                pos++;
+            }
+        }
+        mPos = pos;
+        return true;
+    }
+
+    private boolean startsWith(byte[] prefix) {
+        if (mLineEnd - mLineStart < prefix.length) {
+            return false;
+        }
+        for (int i = 0; i < prefix.length; i++) {
+            if (mBuffer.get(mLineStart + i) != prefix[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    public int read(List<M3UFile> songs, int max) throws IOException {
+        int read = 0;
+        while (read < max) {
+            M3UFile m3u = next();
+            if (m3u == null) {
+                break;
+            }
+            songs.add(m3u);
+            read++;
+        }
+        return read;
+    }
+
+    public int getCount() {
+        return mCount;
+    }
+
+    public boolean isExtended() {
+        return mExtended;
+    }
+
+    public Charset getCharset() {
+        return mCharset;
+    }
+
+    // Delimiters are found on the bytes, which takes a charset encoding ASCII characters as single bytes
+    private static boolean isSplittable(Charset charset) {
+        String name = charset.name().toUpperCase(Locale.ROOT);
+        return !name.contains("UTF-16") && !name.contains("UTF-32");
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (mReader != null) {
+            mReader.close();
+        }
+        if (mChannel != null) {
+            mChannel.close();
+        }
+    }
+
+    // Reads the remaining bytes of a buffer
+    private static final class BufferStream extends InputStream {
+        private final ByteBuffer mBuffer;
+
+        BufferStream(ByteBuffer buffer) {
+            mBuffer = buffer;
+        }
+
+        @Override
+        public int read() {
+            return mBuffer.hasRemaining() ? (mBuffer.get() & 0xFF) : -1;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) {
+            if (len == 0) {
+                return 0;
+            }
+            if (!mBuffer.hasRemaining()) {
+                return -1;
+            }
+            len = Math.min(len, mBuffer.remaining());
+            mBuffer.get(b, off, len);
+            return len;
+        }
+    }
+}
@@ -0,0 +1,144 @@
+package com.omicronapplications.m3ulib;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URI;
+import java.net.URLConnection;
+import java.nio.charset.Charset;
+import java.util.zip.GZIPInputStream;
+
+// Remote playlist kept in a local copy, which is downloaded again only when the server reports a change
+final class M3URemote {
+    private static final int CONNECT_TIMEOUT = 15000;
+    private static final int READ_TIMEOUT = 30000;
+    private static final String GZIP = "gzip";
+    private static final String CHARSET = "charset=";
+    private static final String M3U8 = ".m3u8";
+    private final URI mUri;
+    private final File mList;
+    private final File mValidators;
+    private String mETag;
+    private String mLastModified;
+
+    M3URemote(URI uri, File list) {
+        mUri = uri;
+        mList = list;
+        mValidators = new File(list.getPath() + ".http");
+        mETag = null;
+        mLastModified = null;
+    }
+
+    // Named after the URI, keeping the extension that tells that a playlist is UTF-8
+    static File getListFile(File dir, URI uri) {
+        String path = uri.getPath();
+        String extension = (path != null && path.toLowerCase().endsWith(M3U8)) ? M3U8 : ".m3u";
+        return new File(dir, "remote-" + Integer.toHexString(uri.toString().hashCode()) + extension);
+    }
+
+    // Returns null if the local copy is up to date, otherwise the response body, decompressed
+    M3UDownload fetch() throws IOException {
+        URLConnection connection = mUri.toURL().openConnection();
+        connection.setConnectTimeout(CONNECT_TIMEOUT);
+        connection.setReadTimeout(READ_TIMEOUT);
+        connection.setRequestProperty("Accept-Encoding", GZIP);
+        if (connection instanceof HttpURLConnection) {
+            HttpURLConnection http = (HttpURLConnection) connection;
+            if (mList.exists()) {
+                readValidators();
+                if (mETag != null) {
+                    http.setRequestProperty("If-None-Match", mETag);
+                }
+                if (mLastModified != null) {
+                    http.setRequestProperty("If-Modified-Since", mLastModified);
+                }
+            }
+            int code = http.getResponseCode();
+            if (code == HttpURLConnection.HTTP_NOT_MODIFIED) {
+                http.disconnect();
+                return null;
+            }
+            if (code != HttpURLConnection.HTTP_OK) {
+                http.disconnect();
+                throw new IOException("HTTP " + code + ": " + mUri);
+            }
+        }
+
+        InputStream stream = connection.getInputStream();
+        try {
+            if (GZIP.equalsIgnoreCase(connection.getContentEncoding())) {
+                stream = new GZIPInputStream(stream);
+            }
+            mETag = connection.getHeaderField("ETag");
+            mLastModified = connection.getHeaderField("Last-Modified");
+            return new M3UDownload(stream, charset(connection.getContentType()), mList);
+        } catch (IOException e) {
+            stream.close();
+            throw e;
+        }
+    }
+
+    // Replaces the local copy, and keeps the validators of the new copy for the next fetch
+    void commit(M3UDownload download) throws IOException {
+        download.commit();
+        if (mETag == null && mLastModified == null) {
+            mValidators.delete();
+            return;
+        }
+        DataOutputStream ds = new DataOutputStream(new FileOutputStream(mValidators));
+        try {
+            ds.writeUTF(mETag != null ? mETag : "");
+            ds.writeUTF(mLastModified != null ? mLastModified : "");
+        } finally {
+            ds.close();
+        }
+    }
+
+    private void readValidators() {
+        mETag = null;
+        mLastModified = null;
+        if (!mValidators.exists()) {
+            return;
+        }
+        try {
+            DataInputStream ds = new DataInputStream(new FileInputStream(mValidators));
+            try {
+                String etag = ds.readUTF();
+                String lastModified = ds.readUTF();
+                mETag = etag.isEmpty() ? null : etag;
+                mLastModified = lastModified.isEmpty() ? null : lastModified;
+            } finally {
+                ds.close();
+            }
+        } catch (IOException e) {
+            mValidators.delete();
+        }
+    }
+
+    // From a content type like "audio/x-mpegurl; charset=utf-8", null if missing or not supported
+    static Charset charset(String contentType) {
+        if (contentType == null) {
+            return null;
+        }
+        int start = contentType.toLowerCase().indexOf(CHARSET);
+        if (start == -1) {
+            return null;
+        }
+        start += CHARSET.length();
+        int end = contentType.indexOf(';', start);
+        String name = contentType.substring(start, (end != -1) ? end : contentType.length()).trim();
+        if (name.length() >= 2 && name.startsWith("\"") && name.endsWith("\"")) {
+            name = name.substring(1, name.length() - 1);
+        }
+        try {
+            return Charset.forName(name);
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,124 @@
+package com.omicronapplications.m3ulib;
+
+import java.io.File;
+import java.net.URI;
+import java.util.HashMap;
+
+// Resolves the songs of a playlist against its location, each directory once, sharing the resolved directory among its songs
+final class M3UResolver {
+    private static volatile M3UResolver sDefault;
+    // Directory of the playlist, and the "scheme://host" of a remote one, for paths starting with a slash
+    private final String mBase;
+    private final String mRoot;
+    private final HashMap<String, String> mDirs;
+
+    M3UResolver(File list) {
+        this(directory(list.getAbsoluteFile().getParent()), "");
+    }
+
+    // Songs of a remote playlist are relative to its URL
+    M3UResolver(URI list) {
+        this(directory(list), list.toString().substring(0, hostEnd(list.toString())));
+    }
+
+    private M3UResolver(String base, String root) {
+        mBase = base;
+        mRoot = root;
+        mDirs = new HashMap<>();
+    }
+
+    // For songs not read from a playlist, relative to the working directory like File.getAbsolutePath()
+    static M3UResolver getDefault() {
+        if (sDefault == null) {
+            sDefault = new M3UResolver(directory(new File("").getAbsolutePath()), "");
+        }
+        return sDefault;
+    }
+
+    boolean isRemote() {
+        return !mRoot.isEmpty();
+    }
+
+    // Full path or URL of a song, path and name are the ones written to the playlist
+    synchronized String resolve(String path, String name) {
+        if (path == null) {
+            path = "";
+        }
+        if (path.isEmpty() && isUrl(name)) {
+            return name;
+        }
+        String dir = mDirs.get(path);
+        if (dir == null) {
+            dir = directoryOf(path);
+            mDirs.put(path, dir);
+        }
+        if (name == null || name.isEmpty()) {
+            return (dir.length() > 1) ? dir.substring(0, dir.length() - 1) : dir;
+        }
+        return dir.concat(name);
+    }
+
+    static boolean isUrl(String str) {
+        return str != null && M3UDuplicates.hostLength(str) > 0;
+    }
+
+    // Normalized directory ending with a slash, URLs in the playlist are kept as they are
+    private String directoryOf(String path) {
+        String dir;
+        if (path.isEmpty()) {
+            dir = mBase;
+        } else if (isUrl(path)) {
+            dir = path;
+        } else if (path.charAt(0) == '/') {
+            dir = M3UDuplicates.normalize(mRoot + path, null);
+        } else {
+            dir = M3UDuplicates.normalize(mBase + path, null);
+        }
+        return directory(dir);
+    }
+
+    private static String directory(String dir) {
+        if (dir == null || dir.isEmpty()) {
+            return "/";
+        }
+        return dir.endsWith("/") ? dir : dir + "/";
+    }
+
+    // Up to the last slash of the path, without query and fragment
+    private static String directory(URI list) {
+        String str = list.toString();
+        int host = hostEnd(str);
+        int end = pathEnd(str);
+        int slash = str.lastIndexOf('/', end - 1);
+        return (slash >= host) ? str.substring(0, slash + 1) : str.substring(0, host) + "/";
+    }
+
+    // End of the "scheme://host" of an URL, which may be followed by a query without a path
+    private static int hostEnd(String str) {
+        return Math.min(M3UDuplicates.hostLength(str), pathEnd(str));
+    }
+
+    // First query or fragment delimiter, slashes after it are not part of the path
+    private static int pathEnd(String str) {
+        for (int i = 0; i < str.length(); i++) {
+            char c = str.charAt(i);
+            if (c == '?' || c == '#') {
+                return i;
+            }
+        }
+        return str.length();
+    }
+
+    // Full path of a song, cached on the song together with the path and name it was resolved from
+    static final class Resolved {
+        final String path;
+        final String name;
+        final String fullPath;
+
+        Resolved(String path, String name, String fullPath) {
+            this.path = path;
+            this.name = name;
+            this.fullPath = fullPath;
+        }
+    }
+}
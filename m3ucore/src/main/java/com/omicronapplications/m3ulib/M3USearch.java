@@ -0,0 +1,247 @@
+package com.omicronapplications.m3ulib;
+
+import java.text.Normalizer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+
+// Token index over path, name, author and title, matching query words as prefixes of song words
+final class M3USearch {
+    private static final int MIN_DEAD = 1024;
+    private final HashMap<String, Postings> mTokens;
+    // Tokens in order for prefix lookups, sorted again on the first search after new tokens
+    private String[] mSorted;
+    // Songs are keyed by path and name like in a playlist, equal songs share an id
+    private final HashMap<M3UFile, Integer> mIds;
+    private M3UFile[] mSongs;
+    private int[] mRefs;
+    private int mCount;
+    private int mLive;
+
+    M3USearch() {
+        mTokens = new HashMap<>();
+        mSorted = null;
+        mIds = new HashMap<>();
+        mSongs = new M3UFile[16];
+        mRefs = new int[16];
+        mCount = 0;
+        mLive = 0;
+    }
+
+    M3USearch(List<M3UFile> songs) {
+        this();
+        for (M3UFile m3u : songs) {
+            add(m3u);
+        }
+    }
+
+    // Lower case, without accents, split on anything but letters and digits
+    static List<String> tokenize(String str) {
+        List<String> tokens = new ArrayList<>();
+        if (str == null || str.isEmpty()) {
+            return tokens;
+        }
+        String decomposed = isAscii(str) ? str : Normalizer.normalize(str, Normalizer.Form.NFD);
+        int start = -1;
+        for (int i = 0; i < decomposed.length(); i++) {
+            char c = decomposed.charAt(i);
+            if (Character.isLetterOrDigit(c)) {
+                if (start == -1) {
+                    start = i;
+                }
+            } else if (start != -1 && Character.getType(c) != Character.NON_SPACING_MARK) {
+                tokens.add(token(decomposed, start, i));
+                start = -1;
+            }
+        }
+        if (start != -1) {
+            tokens.add(token(decomposed, start, decomposed.length()));
+        }
+        return tokens;
+    }
+
+    private static boolean isAscii(String str) {
+        for (int i = 0; i < str.length(); i++) {
+            if (str.charAt(i) >= 0x80) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static String token(String str, int start, int end) {
+        StringBuilder sb = null;
+        for (int i = start; i < end; i++) {
+            char c = str.charAt(i);
+            if (Character.getType(c) == Character.NON_SPACING_MARK) {
+                if (sb == null) {
+                    sb = new StringBuilder(str.substring(start, i));
+                }
+            } else if (sb != null) {
+                sb.append(c);
+            }
+        }
+        String token = (sb != null) ? sb.toString() : str.substring(start, end);
+        return token.toLowerCase(Locale.ROOT);
+    }
+
+    void add(M3UFile m3u) {
+        Integer id = mIds.get(m3u);
+        if (id != null) {
+            mRefs[id]++;
+            return;
+        }
+        if (mCount == mSongs.length) {
+            mSongs = Arrays.copyOf(mSongs, 2 * mCount);
+            mRefs = Arrays.copyOf(mRefs, 2 * mCount);
+        }
+        id = mCount++;
+        mSongs[id] = m3u;
+        mRefs[id] = 1;
+        mIds.put(m3u, id);
+        mLive++;
+        addTokens(m3u.path, id);
+        addTokens(m3u.name, id);
+        if (m3u.extended) {
+            addTokens(m3u.author, id);
+            addTokens(m3u.title, id);
+        }
+    }
+
+    private void addTokens(String str, int id) {
+        for (String token : tokenize(str)) {
+            Postings postings = mTokens.get(token);
+            if (postings == null) {
+                postings = new Postings();
+                mTokens.put(token, postings);
+                mSorted = null;
+            }
+            postings.add(id);
+        }
+    }
+
+    // Removes one occurrence of the song, or all of them
+    void remove(M3UFile m3u, boolean all) {
+        Integer id = mIds.get(m3u);
+        if (id == null) {
+            return;
+        }
+        mRefs[id] = all ? 0 : mRefs[id] - 1;
+        if (mRefs[id] > 0) {
+            return;
+        }
+        // Postings keep the id until the index is compacted
+        mIds.remove(m3u);
+        mSongs[id] = null;
+        mLive--;
+        if (mCount - mLive > Math.max(MIN_DEAD, mLive)) {
+            compact();
+        }
+    }
+
+    // Songs matching all words of the query, or null if the query has no words
+    Matches find(String query) {
+        List<String> words = tokenize(query);
+        if (words.isEmpty()) {
+            return null;
+        }
+        if (mSorted == null) {
+            mSorted = mTokens.keySet().toArray(new String[0]);
+            Arrays.sort(mSorted);
+        }
+        BitSet result = null;
+        for (String word : new HashSet<>(words)) {
+            BitSet bits = new BitSet(mCount);
+            int i = Arrays.binarySearch(mSorted, word);
+            for (i = (i < 0) ? -i - 1 : i; i < mSorted.length && mSorted[i].startsWith(word); i++) {
+                mTokens.get(mSorted[i]).addTo(bits);
+            }
+            if (result == null) {
+                result = bits;
+            } else {
+                result.and(bits);
+            }
+            if (result.isEmpty()) {
+                break;
+            }
+        }
+        return new Matches(result);
+    }
+
+    int size() {
+        return mLive;
+    }
+
+    private void compact() {
+        M3UFile[] songs = mSongs;
+        int[] refs = mRefs;
+        int count = mCount;
+        mTokens.clear();
+        mSorted = null;
+        mIds.clear();
+        mSongs = new M3UFile[Math.max(16, 2 * mLive)];
+        mRefs = new int[mSongs.length];
+        mCount = 0;
+        mLive = 0;
+        for (int id = 0; id < count; id++) {
+            if (songs[id] != null) {
+                add(songs[id]);
+                mRefs[mCount - 1] = refs[id];
+            }
+        }
+    }
+
+    // Matching ids, valid until the index is changed
+    final class Matches {
+        private final BitSet mMatches;
+
+        private Matches(BitSet matches) {
+            mMatches = matches;
+        }
+
+        boolean isEmpty() {
+            return mMatches.isEmpty();
+        }
+
+        // Ascending positions of the matching songs from one position up to another, every copy of a song is reported
+        int[] positions(M3UPlaylist songs, int from, int to) {
+            int[] positions = new int[to - from];
+            int count = 0;
+            if (!mMatches.isEmpty()) {
+                for (int i = from; i < to; i++) {
+                    Integer id = mIds.get(songs.at(i));
+                    if (id != null && mMatches.get(id)) {
+                        positions[count++] = i;
+                    }
+                }
+            }
+            return Arrays.copyOf(positions, count);
+        }
+    }
+
+    private static final class Postings {
+        private int[] mIds = new int[4];
+        private int mSize = 0;
+
+        // Ids are added in increasing order, a song with a repeated word is added once
+        void add(int id) {
+            if (mSize > 0 && mIds[mSize - 1] == id) {
+                return;
+            }
+            if (mSize == mIds.length) {
+                mIds = Arrays.copyOf(mIds, 2 * mSize);
+            }
+            mIds[mSize++] = id;
+        }
+
+        void addTo(BitSet bits) {
+            for (int i = 0; i < mSize; i++) {
+                bits.set(mIds[i]);
+            }
+        }
+    }
+}
@@ -0,0 +1,117 @@
+package com.omicronapplications.m3ulib;
+
+import java.text.CollationKey;
+import java.text.Collator;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+
+// Orders songs by collation keys, which are kept between sorts since creating them is the expensive part
+final class M3USorter {
+    static final int PATH = 0;
+    static final int AUTHOR = 1;
+    static final int TITLE = 2;
+    static final int SONGLENGTH = 3;
+    private final Collator mCollator;
+    // Keys of the strings in the last sorted playlist, shared by equal strings
+    private HashMap<String, CollationKey> mKeys;
+
+    M3USorter() {
+        mCollator = Collator.getInstance();
+        mCollator.setStrength(Collator.SECONDARY);
+        mKeys = new HashMap<>();
+    }
+
+    // Returns the songs in sorted order, songs with equal keys keep their order, or null for an illegal order
+    M3UFile[] sort(List<M3UFile> songs, int order, boolean descending) {
+        if (order < PATH || order > SONGLENGTH) {
+            return null;
+        }
+        HashMap<String, CollationKey> keys = new HashMap<>();
+        Entry[] entries = new Entry[songs.size()];
+        for (int i = 0; i < entries.length; i++) {
+            M3UFile m3u = songs.get(i);
+            Entry entry = new Entry(m3u);
+            switch (order) {
+                case PATH:
+                    entry.primary = key(keys, m3u.path);
+                    entry.secondary = key(keys, m3u.name);
+                    break;
+                case AUTHOR:
+                    entry.primary = key(keys, m3u.extended ? m3u.author : null);
+                    entry.secondary = key(keys, m3u.extended ? m3u.title : null);
+                    break;
+                case TITLE:
+                    entry.primary = key(keys, m3u.extended ? m3u.title : null);
+                    entry.secondary = key(keys, m3u.extended ? m3u.author : null);
+                    break;
+                default:
+                    break;
+            }
+            entries[i] = entry;
+        }
+        mKeys = keys;
+        Comparator<Entry> comparator = (order == SONGLENGTH) ? BY_SONGLENGTH : BY_KEYS;
+        if (descending) {
+            comparator = reverse(comparator);
+        }
+        Arrays.sort(entries, comparator);
+        M3UFile[] sorted = new M3UFile[entries.length];
+        for (int i = 0; i < entries.length; i++) {
+            sorted[i] = entries[i].song;
+        }
+        return sorted;
+    }
+
+    private CollationKey key(HashMap<String, CollationKey> keys, String str) {
+        if (str == null) {
+            str = "";
+        }
+        CollationKey key = keys.get(str);
+        if (key == null) {
+            key = mKeys.get(str);
+            if (key == null) {
+                key = mCollator.getCollationKey(str);
+            }
+            keys.put(str, key);
+        }
+        return key;
+    }
+
+    private static Comparator<Entry> reverse(final Comparator<Entry> comparator) {
+        return new Comparator<Entry>() {
+            @Override
+            public int compare(Entry entry1, Entry entry2) {
+                return comparator.compare(entry2, entry1);
+            }
+        };
+    }
+
+    private static final Comparator<Entry> BY_KEYS = new Comparator<Entry>() {
+        @Override
+        public int compare(Entry entry1, Entry entry2) {
+            int result = entry1.primary.compareTo(entry2.primary);
+            return (result != 0) ? result : entry1.secondary.compareTo(entry2.secondary);
+        }
+    };
+
+    private static final Comparator<Entry> BY_SONGLENGTH = new Comparator<Entry>() {
+        @Override
+        public int compare(Entry entry1, Entry entry2) {
+            long length1 = entry1.song.extended ? entry1.song.songlength : 0;
+            long length2 = entry2.song.extended ? entry2.song.songlength : 0;
+            return (length1 < length2) ? -1 : ((length1 == length2) ? 0 : 1);
+        }
+    };
+
+    private static final class Entry {
+        final M3UFile song;
+        CollationKey primary;
+        CollationKey secondary;
+
+        Entry(M3UFile song) {
+            this.song = song;
+        }
+    }
+}
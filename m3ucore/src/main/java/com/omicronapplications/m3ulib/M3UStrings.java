@@ -0,0 +1,47 @@
+package com.omicronapplications.m3ulib;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+
+// Table of shared strings, so that repeated directories and authors are stored once
+final class M3UStrings {
+    static final int NO_STRING = -1;
+    private final ArrayList<String> mStrings;
+    private final HashMap<String, Integer> mIndex;
+
+    M3UStrings() {
+        mStrings = new ArrayList<>();
+        mIndex = new HashMap<>();
+    }
+
+    int intern(String str) {
+        if (str == null) {
+            return NO_STRING;
+        }
+        Integer i = mIndex.get(str);
+        if (i == null) {
+            i = mStrings.size();
+            mIndex.put(str, i);
+            mStrings.add(str);
+        }
+        return i;
+    }
+
+    String get(int i) {
+        return (i == NO_STRING) ? null : mStrings.get(i);
+    }
+
+    // Returns the instance already in the table, if any
+    String share(String str) {
+        return get(intern(str));
+    }
+
+    int size() {
+        return mStrings.size();
+    }
+
+    void clear() {
+        mStrings.clear();
+        mIndex.clear();
+    }
+}
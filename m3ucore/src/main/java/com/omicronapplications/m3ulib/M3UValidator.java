@@ -0,0 +1,142 @@
+package com.omicronapplications.m3ulib;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Checks the files of playlist songs on worker threads, remembering the length and time of each file
+final class M3UValidator {
+    private static final int MAX_WORKERS = 4;
+    private static final int CHUNK = 256;
+    private static final int FOUND = 0;
+    private static final int MISSING = 1;
+    private static final int CHANGED = 2;
+    // Last seen length and modification time of each file, by path
+    private final ConcurrentHashMap<String, long[]> mFiles;
+
+    M3UValidator() {
+        mFiles = new ConcurrentHashMap<>();
+    }
+
+    interface Listener {
+        // Called on a worker thread for each checked chunk, and once more with last set when all are checked
+        void onValidated(Job job, int[] missing, int[] changed, int count, boolean last);
+    }
+
+    Job start(List<M3UFile> songs, IM3UValidateCallback callback, Listener listener) {
+        final Job job = new Job(songs, callback, listener);
+        int workers = Math.min(Math.min(MAX_WORKERS, M3UExecutor.getThreads()), job.mChunks);
+        if (workers == 0) {
+            listener.onValidated(job, new int[0], new int[0], 0, true);
+            return job;
+        }
+        ExecutorService executor = M3UExecutor.get();
+        for (int i = 0; i < workers; i++) {
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    validate(job);
+                }
+            });
+        }
+        return job;
+    }
+
+    // Workers take chunks in order until all are taken or the job is cancelled
+    private void validate(Job job) {
+        int chunk = job.mNext.getAndIncrement();
+        while (chunk < job.mChunks && !job.mCancelled) {
+            int from = chunk * CHUNK;
+            int to = Math.min(job.songs.size(), from + CHUNK);
+            int[] missing = new int[to - from];
+            int[] changed = new int[to - from];
+            int missingCount = 0;
+            int changedCount = 0;
+            for (int i = from; i < to && !job.mCancelled; i++) {
+                switch (check(job, job.songs.get(i))) {
+                    case MISSING:
+                        missing[missingCount++] = i;
+                        break;
+                    case CHANGED:
+                        changed[changedCount++] = i;
+                        break;
+                    default:
+                        break;
+                }
+            }
+            if (job.mCancelled) {
+                return;
+            }
+            job.listener.onValidated(job, Arrays.copyOf(missing, missingCount), Arrays.copyOf(changed, changedCount), to - from, false);
+            // All other chunks have been reported once the last one is done
+            if (job.mDone.incrementAndGet() == job.mChunks) {
+                job.listener.onValidated(job, new int[0], new int[0], 0, true);
+            }
+            chunk = job.mNext.getAndIncrement();
+        }
+    }
+
+    private int check(Job job, M3UFile m3u) {
+        if (m3u.path == null && m3u.name == null) {
+            return MISSING;
+        }
+        String fullPath = m3u.getFullPath();
+        if (M3UResolver.isUrl(fullPath)) {
+            return FOUND;
+        }
+        File file = new File(fullPath);
+        String parent = file.getParent();
+        if (parent != null && Boolean.FALSE.equals(job.mDirs.get(parent))) {
+            return MISSING;
+        }
+        // A modification time of 0 means the file does not exist
+        long modified = file.lastModified();
+        if (modified == 0) {
+            // Songs in a missing directory, such as a removed SD card, are not checked one by one
+            if (parent != null && !job.mDirs.containsKey(parent)) {
+                job.mDirs.put(parent, new File(parent).isDirectory());
+            }
+            return MISSING;
+        }
+        long[] stat = new long[] {file.length(), modified};
+        long[] last = mFiles.put(file.getPath(), stat);
+        return (last != null && (last[0] != stat[0] || last[1] != stat[1])) ? CHANGED : FOUND;
+    }
+
+    static final class Job {
+        final List<M3UFile> songs;
+        final IM3UValidateCallback callback;
+        final Listener listener;
+        private final int mChunks;
+        private final AtomicInteger mNext;
+        private final AtomicInteger mDone;
+        // Directories found to exist or not during this job
+        private final ConcurrentHashMap<String, Boolean> mDirs;
+        private volatile boolean mCancelled;
+        // Songs reported so far, only used by the listener
+        int checked;
+
+        private Job(List<M3UFile> songs, IM3UValidateCallback callback, Listener listener) {
+            this.songs = songs;
+            this.callback = callback;
+            this.listener = listener;
+            mChunks = (songs.size() + CHUNK - 1) / CHUNK;
+            mNext = new AtomicInteger();
+            mDone = new AtomicInteger();
+            mDirs = new ConcurrentHashMap<>();
+            mCancelled = false;
+            checked = 0;
+        }
+
+        void cancel() {
+            mCancelled = true;
+        }
+
+        boolean isCancelled() {
+            return mCancelled;
+        }
+    }
+}
@@ -0,0 +1,260 @@
+package com.omicronapplications.m3ulib;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.Flushable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+
+// Writes songs in extended M3U format through one reusable buffer, the songs themselves are not modified
+public class M3UWriter implements Closeable, Flushable {
+    private static final String EXTM3U = "#EXTM3U";
+    private static final String EXTINF = "#EXTINF:";
+    private static final String LINE_SEPARATOR = System.getProperty("line.separator");
+    private static final int BUFFER_SIZE = 8192;
+    private final Writer mWriter;
+    private final OutputStream mStream;
+    private final CharsetEncoder mEncoder;
+    private final char[] mChars;
+    private final ByteBuffer mBytes;
+    private int mCount;
+
+    public M3UWriter(Writer writer) {
+        mWriter = writer;
+        mStream = null;
+        mEncoder = null;
+        mChars = new char[BUFFER_SIZE];
+        mBytes = null;
+        mCount = 0;
+    }
+
+    public M3UWriter(OutputStream stream) {
+        this(stream, M3UDecoder.UTF_8);
+    }
+
+    public M3UWriter(OutputStream stream, Charset charset) {
+        mWriter = null;
+        mStream = stream;
+        mEncoder = charset.newEncoder()
+                .onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE);
+        mChars = new char[BUFFER_SIZE];
+        mBytes = ByteBuffer.allocate((int) (BUFFER_SIZE * mEncoder.maxBytesPerChar()));
+        mCount = 0;
+    }
+
+    public void writeHeader() throws IOException {
+        append(EXTM3U);
+        append(LINE_SEPARATOR);
+    }
+
+    // Each song follows an empty line, extended songs on an #EXTINF line with attributes, author and title
+    public void write(M3UFile m3u) throws IOException {
+        append(LINE_SEPARATOR);
+        M3UAttributes attributes = m3u.attributes;
+        int entry = m3u.attributeEntry;
+        if (attributes != null) {
+            appendDirectives(attributes, entry, M3UAttributes.BEFORE);
+        }
+        if (m3u.extended) {
+            append(EXTINF);
+            appendDuration(m3u.songlength);
+            if (attributes != null) {
+                appendAttributes(attributes, entry);
+            }
+            append(", ");
+            if (m3u.author != null && !m3u.author.isEmpty()) {
+                appendField(m3u.author);
+                append(" - ");
+            }
+            appendField(m3u.title);
+            append(LINE_SEPARATOR);
+        }
+        if (attributes != null) {
+            appendDirectives(attributes, entry, M3UAttributes.AFTER);
+        }
+        if (m3u.path != null && !m3u.path.isEmpty()) {
+            append(m3u.path);
+            append(File.separator);
+        }
+        if (m3u.name != null) {
+            append(m3u.name);
+        }
+        append(LINE_SEPARATOR);
+    }
+
+    @Override
+    public void flush() throws IOException {
+        drain(false);
+        if (mWriter != null) {
+            mWriter.flush();
+        } else {
+            mStream.flush();
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            drain(true);
+        } finally {
+            if (mWriter != null) {
+                mWriter.close();
+            } else {
+                mStream.close();
+            }
+        }
+    }
+
+    private void append(String str) throws IOException {
+        int len = str.length();
+        int start = 0;
+        while (start < len) {
+            if (mCount == mChars.length) {
+                drain(false);
+            }
+            int end = Math.min(len, start + mChars.length - mCount);
+            str.getChars(start, end, mChars, mCount);
+            mCount += end - start;
+            start = end;
+        }
+    }
+
+    // Hyphens would be taken for the separator between author and title, and line breaks would end the line
+    private void appendField(String str) throws IOException {
+        if (str == null) {
+            return;
+        }
+        for (int i = 0; i < str.length(); i++) {
+            if (mCount == mChars.length) {
+                drain(false);
+            }
+            char c = str.charAt(i);
+            if (c == '-') {
+                c = '_';
+            } else if (c == '\n' || c == '\r') {
+                c = ' ';
+            }
+            mChars[mCount++] = c;
+        }
+    }
+
+    // Whole seconds, with up to three decimals when the length is not
+    private void appendDuration(long songlength) throws IOException {
+        if (songlength < 0 && songlength > -1000) {
+            append("-");
+        }
+        appendNumber(songlength / 1000);
+        int millis = (int) Math.abs(songlength % 1000);
+        if (millis != 0) {
+            append(".");
+            for (int scale = 100; millis != 0; scale /= 10) {
+                appendNumber(millis / scale);
+                millis %= scale;
+            }
+        }
+    }
+
+    private void appendAttributes(M3UAttributes attributes, int entry) throws IOException {
+        for (int i = 0; i < attributes.size(entry); i++) {
+            if (attributes.kind(entry, i) == M3UAttributes.ATTRIBUTE) {
+                append(" ");
+                append(attributes.key(entry, i));
+                String value = attributes.value(entry, i);
+                if (value != null) {
+                    append("=\"");
+                    appendValue(value, true);
+                    append("\"");
+                }
+            }
+        }
+    }
+
+    private void appendDirectives(M3UAttributes attributes, int entry, int kind) throws IOException {
+        for (int i = 0; i < attributes.size(entry); i++) {
+            if (attributes.kind(entry, i) == kind) {
+                append(attributes.key(entry, i));
+                String value = attributes.value(entry, i);
+                if (value != null) {
+                    append(":");
+                    appendValue(value, false);
+                }
+                append(LINE_SEPARATOR);
+            }
+        }
+    }
+
+    // Quotes would end a quoted attribute value, and line breaks would end the line
+    private void appendValue(String str, boolean quoted) throws IOException {
+        for (int i = 0; i < str.length(); i++) {
+            if (mCount == mChars.length) {
+                drain(false);
+            }
+            char c = str.charAt(i);
+            if (c == '"' && quoted) {
+                c = '\'';
+            } else if (c == '\n' || c == '\r') {
+                c = ' ';
+            }
+            mChars[mCount++] = c;
+        }
+    }
+
+    private void appendNumber(long n) throws IOException {
+        if (mCount + 20 > mChars.length) {
+            drain(false);
+        }
+        if (n < 0) {
+            mChars[mCount++] = '-';
+        } else {
+            n = -n;
+        }
+        int digits = 1;
+        for (long m = n / 10; m != 0; m /= 10) {
+            digits++;
+        }
+        // Digits of the negated number, which also holds Long.MIN_VALUE
+        for (int i = mCount + digits - 1; i >= mCount; i--) {
+            mChars[i] = (char) ('0' - (n % 10));
+            n /= 10;
+        }
+        mCount += digits;
+    }
+
+    private void drain(boolean end) throws IOException {
+        if (mWriter != null) {
+            mWriter.write(mChars, 0, mCount);
+            mCount = 0;
+            return;
+        }
+        CharBuffer chars = CharBuffer.wrap(mChars, 0, mCount);
+        CoderResult result;
+        do {
+            result = mEncoder.encode(chars, mBytes, end);
+            writeBytes();
+        } while (result.isOverflow());
+        if (end) {
+            while (mEncoder.flush(mBytes).isOverflow()) {
+                writeBytes();
+            }
+            writeBytes();
+            mEncoder.reset();
+        }
+        // A high surrogate at the end of the buffer waits for the rest of its character
+        int left = chars.remaining();
+        System.arraycopy(mChars, chars.position(), mChars, 0, left);
+        mCount = left;
+    }
+
+    private void writeBytes() throws IOException {
+        mStream.write(mBytes.array(), 0, mBytes.position());
+        mBytes.clear();
+    }
+}
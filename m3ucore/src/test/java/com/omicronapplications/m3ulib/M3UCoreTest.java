@@ -0,0 +1,359 @@
+package com.omicronapplications.m3ulib;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class M3UCoreTest {
+    private static final M3UFile TEST_M3U1 = new M3UFile("/path/to", "song.d00", "Some author", "Some title", 123000);
+    private static final M3UFile TEST_M3U2 = new M3UFile("/some other/longer path", "some song.adl", "Other author", "Other title", 456000);
+    private static final M3UFile TEST_M3U3 = new M3UFile("root", "another song.s3m");
+    private static final String TEST_IPTV =
+            "#EXTM3U\n" +
+            "#PLAYLIST:Channels\n" +
+            "#EXTINF:-1 tvg-id=\"cnn.us\" tvg-logo=\"http://logo/cnn.png\" group-title=\"News, 24h\" catchup,CNN International\n" +
+            "#EXTGRP:News\n" +
+            "#EXTVLCOPT:http-user-agent=Mozilla/5.0\n" +
+            "#EXTVLCOPT:http-referrer=http://example.com/\n" +
+            "http://stream.example.com/cnn.m3u8\n" +
+            "# Comment\n" +
+            "#EXT-X-DISCONTINUITY\n" +
+            "#EXTINF:9.97,\n" +
+            "segment1.ts\n" +
+            "/path/to/song.d00\n";
+
+    private static String write(List<M3UFile> songs) throws IOException {
+        StringWriter sw = new StringWriter();
+        M3UWriter writer = new M3UWriter(sw);
+        writer.writeHeader();
+        for (M3UFile m3u : songs) {
+            writer.write(m3u);
+        }
+        writer.close();
+        return sw.toString();
+    }
+
+    private static List<M3UFile> read(M3UReader reader) throws IOException {
+        List<M3UFile> songs = new ArrayList<>();
+        reader.read(songs, Integer.MAX_VALUE);
+        reader.close();
+        return songs;
+    }
+
+    @Test
+    public void testReadWrite() throws IOException {
+        List<M3UFile> songs = Arrays.asList(TEST_M3U1, TEST_M3U2, TEST_M3U3);
+        List<M3UFile> read = read(new M3UReader(new StringReader(write(songs))));
+        assertEquals(songs, read);
+        assertEquals("Other author", read.get(1).author);
+        assertEquals("Other title", read.get(1).title);
+        assertEquals(456000, read.get(1).songlength);
+        assertFalse(read.get(2).extended);
+
+        // Byte order marks, and UTF-16 that cannot be split on bytes
+        String str = "\ufeff" + write(songs);
+        read = read(new M3UReader(new StringReader(str)));
+        assertEquals(songs, read);
+        assertEquals("Some author", read.get(0).author);
+        for (Charset charset : Arrays.asList(M3UDecoder.UTF_16BE, M3UDecoder.UTF_16LE)) {
+            read = read(new M3UReader(ByteBuffer.wrap(str.getBytes(charset)), charset));
+            assertEquals(songs, read);
+            assertEquals(456000, read.get(1).songlength);
+        }
+    }
+
+    @Test
+    public void testLazy() throws IOException {
+        File list = File.createTempFile("m3ucore", ".m3u");
+        try {
+            FileOutputStream os = new FileOutputStream(list);
+            os.write(write(Arrays.asList(TEST_M3U1, TEST_M3U2)).getBytes(M3UDecoder.UTF_8));
+            os.close();
+            M3UPlaylist songs = new M3UPlaylist(read(new M3UReader(list, true)));
+            assertEquals(2, songs.size());
+            assertEquals("Some author", songs.get(0).author);
+            assertEquals("Other title", songs.get(1).title);
+            assertEquals(456000, songs.get(1).songlength);
+        } finally {
+            list.delete();
+        }
+    }
+
+    private static void assertAttributes(List<M3UFile> songs) {
+        assertEquals(3, songs.size());
+        M3UFile m3u = songs.get(0);
+        assertEquals("cnn.m3u8", m3u.name);
+        assertTrue(m3u.extended);
+        assertEquals(-1000, m3u.songlength);
+        assertEquals("", m3u.author);
+        assertEquals("CNN International", m3u.title);
+        assertEquals("cnn.us", m3u.getAttribute("tvg-id"));
+        assertEquals("News, 24h", m3u.getAttribute("group-title"));
+        assertEquals("", m3u.getAttribute("catchup"));
+        assertNull(m3u.getAttribute("tvg-name"));
+        assertEquals(Arrays.asList("tvg-id", "tvg-logo", "group-title", "catchup"), new ArrayList<>(m3u.getAttributes().keySet()));
+        assertEquals("Channels", m3u.getDirective("#PLAYLIST"));
+        assertEquals("News", m3u.getDirective("#EXTGRP"));
+        assertEquals("http-user-agent=Mozilla/5.0", m3u.getDirective("#EXTVLCOPT"));
+        assertEquals(Arrays.asList(
+                "#PLAYLIST:Channels",
+                "#EXTGRP:News",
+                "#EXTVLCOPT:http-user-agent=Mozilla/5.0",
+                "#EXTVLCOPT:http-referrer=http://example.com/"), m3u.getDirectives());
+
+        m3u = songs.get(1);
+        assertEquals("segment1.ts", m3u.name);
+        assertEquals(9970, m3u.songlength);
+        assertEquals("", m3u.title);
+        assertTrue(m3u.getAttributes().isEmpty());
+        assertEquals("", m3u.getDirective("#EXT-X-DISCONTINUITY"));
+        assertNull(m3u.getDirective("#EXTGRP"));
+
+        m3u = songs.get(2);
+        assertFalse(m3u.extended);
+        assertNull(m3u.getAttribute("tvg-id"));
+        assertTrue(m3u.getDirectives().isEmpty());
+
+        // A discarded entry starting with an item without a value releases its chars too
+        M3UAttributes attributes = new M3UAttributes();
+        int kept = attributes.add(M3UAttributes.NO_ENTRY, M3UAttributes.ATTRIBUTE, "a", "x");
+        int discarded = attributes.add(M3UAttributes.NO_ENTRY, M3UAttributes.ATTRIBUTE, "catchup", null);
+        attributes.add(discarded, M3UAttributes.ATTRIBUTE, "b", "long value");
+        attributes.discard(discarded);
+        int entry = attributes.add(M3UAttributes.NO_ENTRY, M3UAttributes.ATTRIBUTE, "c", "z");
+        assertEquals(discarded, entry);
+        assertEquals("z", attributes.value(entry, 0));
+        assertEquals("x", attributes.value(kept, 0));
+        attributes.trimToSize();
+        assertEquals("z", attributes.value(entry, 0));
+
+        // Copies in both directions between two tables
+        M3UAttributes other = new M3UAttributes();
+        int copy = other.copy(attributes, entry);
+        assertEquals("z", other.value(copy, 0));
+        assertEquals("z", attributes.value(attributes.copy(other, copy), 0));
+    }
+
+    @Test
+    public void testAttributes() throws IOException {
+        assertAttributes(read(new M3UReader(new StringReader(TEST_IPTV))));
+        byte[] bytes = TEST_IPTV.getBytes(M3UDecoder.UTF_8);
+        assertAttributes(read(new M3UReader(ByteBuffer.wrap(bytes), M3UDecoder.UTF_8)));
+
+        File list = File.createTempFile("m3ucore", ".m3u");
+        File cache = File.createTempFile("m3ucore", ".m3uc");
+        try {
+            FileOutputStream os = new FileOutputStream(list);
+            os.write(bytes);
+            os.close();
+            List<M3UFile> songs = new M3UPlaylist(read(new M3UReader(list, true)));
+            assertAttributes(songs);
+            assertAttributes(new M3UCompactList(songs));
+            M3UCache snapshot = new M3UCache(cache);
+            snapshot.write(list, list.length(), list.lastModified(), songs, false);
+            assertAttributes(snapshot.read(list));
+
+            String str = write(songs);
+            assertTrue(str.contains("#EXTINF:-1 tvg-id=\"cnn.us\" tvg-logo=\"http://logo/cnn.png\" group-title=\"News, 24h\" catchup, CNN International"));
+            assertTrue(str.contains("#EXTINF:9.97, "));
+            songs = read(new M3UReader(new StringReader(str)));
+            assertAttributes(songs);
+            assertEquals(str, write(songs));
+        } finally {
+            list.delete();
+            cache.delete();
+        }
+
+        M3UFile m3u = read(new M3UReader(new StringReader("#EXTM3U\n#EXTINF:1 a=\"x\",First\n#EXTGRP:A\n#EXTINF:2 b=\"y\",Second\nsong.mp3\n"))).get(0);
+        assertEquals("Second", m3u.title);
+        assertNull(m3u.getAttribute("a"));
+        assertNotNull(m3u.getAttribute("b"));
+        assertTrue(m3u.getDirectives().isEmpty());
+    }
+
+    @Test
+    public void testDownload() throws IOException {
+        File list = File.createTempFile("m3ucore", ".m3u");
+        try {
+            byte[] latin1 = "#EXTM3U\n#EXTINF:123, Bj\u00f6rk - S\u00e5ng\n/path/to/song.d00\n".getBytes(M3UDecoder.ISO_8859_1);
+            M3UDownload download = new M3UDownload(new ByteArrayInputStream(latin1), null, list);
+            List<M3UFile> songs = new ArrayList<>();
+            download.getReader().read(songs, Integer.MAX_VALUE);
+            download.commit();
+            download.close();
+            assertEquals(M3UDecoder.ISO_8859_1, download.getCharset());
+            assertEquals("Bj\u00f6rk", songs.get(0).author);
+            assertEquals(latin1.length, list.length());
+
+            // With a byte order mark, and not committed
+            int files = list.getParentFile().list().length;
+            byte[] bom = "\ufeff#EXTM3U\n#EXTINF:1, A - B\nsong.mp3\n".getBytes(M3UDecoder.UTF_8);
+            download = new M3UDownload(new ByteArrayInputStream(bom), null, list);
+            songs.clear();
+            download.getReader().read(songs, Integer.MAX_VALUE);
+            download.close();
+            assertEquals("A", songs.get(0).author);
+            assertEquals(latin1.length, list.length());
+            assertEquals(files, list.getParentFile().list().length);
+        } finally {
+            list.delete();
+        }
+        assertEquals(M3UDecoder.UTF_8, M3URemote.charset("audio/x-mpegurl; charset=\"UTF-8\""));
+        assertNull(M3URemote.charset("audio/x-mpegurl"));
+    }
+
+    @Test
+    public void testResolver() throws IOException {
+        File list = File.createTempFile("m3ucore", ".m3u");
+        try {
+            String dir = list.getAbsoluteFile().getParent();
+            FileOutputStream os = new FileOutputStream(list);
+            os.write(("song.mp3\n" +
+                    "sub/./a.mp3\n" +
+                    "sub/b.mp3\n" +
+                    "../up.mp3\n" +
+                    "/abs/c.mp3\n" +
+                    "http://host/live/stream.ts\n" +
+                    "http://host\n").getBytes(M3UDecoder.UTF_8));
+            os.close();
+            List<M3UFile> songs = read(new M3UReader(list));
+            assertEquals(dir + "/song.mp3", songs.get(0).getFullPath());
+            assertEquals(dir + "/sub/a.mp3", songs.get(1).getFullPath());
+            assertEquals(new File(new File(dir).getParentFile(), "up.mp3").getPath(), songs.get(3).getFullPath());
+            assertEquals("/abs/c.mp3", songs.get(4).getFullPath());
+            assertEquals("http://host/live/stream.ts", songs.get(5).getFullPath());
+            assertEquals("http://host", songs.get(6).getFullPath());
+            // Resolved once, and written as read
+            assertTrue(songs.get(2).getFullPath() == songs.get(2).getFullPath());
+            assertEquals("sub/./a.mp3", songs.get(1).path + "/" + songs.get(1).name);
+            assertEquals("http://host/live", songs.get(5).path);
+            assertEquals("stream.ts", songs.get(5).name);
+            assertTrue(write(songs).contains("\nhttp://host/live/stream.ts\n"));
+            assertTrue(write(songs).endsWith("\nhttp://host\n"));
+            assertEquals(dir + "/sub/b.mp3", new M3UCompactList(songs).get(2).getFullPath());
+
+            songs.get(0).name = "other.mp3";
+            assertEquals(dir + "/other.mp3", songs.get(0).getFullPath());
+        } finally {
+            list.delete();
+        }
+
+        M3UResolver remote = new M3UResolver(URI.create("https://example.com/lists/tv.m3u8?token=1"));
+        assertTrue(remote.isRemote());
+        assertEquals("https://example.com/lists/ch 1.ts", remote.resolve(null, "ch 1.ts"));
+        assertEquals("https://example.com/media/ch2.ts", remote.resolve("../media", "ch2.ts"));
+        assertEquals("https://example.com/root/ch3.ts", remote.resolve("/root", "ch3.ts"));
+        assertEquals("http://cdn/ch4.ts", remote.resolve("http://cdn", "ch4.ts"));
+        assertEquals("https://example.com/ch5.ts", new M3UResolver(URI.create("https://example.com")).resolve(null, "ch5.ts"));
+        // Slashes in the query or fragment are not directories
+        M3UResolver query = new M3UResolver(URI.create("http://h/a/list.m3u?next=/x/y#/z"));
+        assertEquals("http://h/a/ch6.ts", query.resolve("", "ch6.ts"));
+        assertEquals("http://h/b/ch7.ts", query.resolve("../b", "ch7.ts"));
+        assertEquals("http://h/ch8.ts", new M3UResolver(URI.create("http://h?next=/x/y")).resolve(null, "ch8.ts"));
+    }
+
+    @Test
+    public void testPlaylist() {
+        M3UPlaylist songs = new M3UPlaylist(Arrays.asList(TEST_M3U1, TEST_M3U2));
+        songs.setRecording(true);
+        M3UList snapshot = songs.snapshot();
+        songs.add(TEST_M3U3);
+        songs.move(2, 0);
+        songs.remove(TEST_M3U1);
+        assertEquals(Arrays.asList(
+                new M3UChange(M3UChange.INSERTED, 2, 1, -1),
+                new M3UChange(M3UChange.MOVED, 2, 1, 0),
+                new M3UChange(M3UChange.REMOVED, 1, 1, -1)), songs.takeChanges());
+        assertEquals(Arrays.asList(TEST_M3U3, TEST_M3U2), songs);
+        assertEquals(1, songs.indexOf(new M3UFile(TEST_M3U2.path, TEST_M3U2.name)));
+        assertEquals(Arrays.asList(TEST_M3U1, TEST_M3U2), snapshot);
+        assertTrue(songs.getVersion() > snapshot.getVersion());
+    }
+
+    @Test
+    public void testUpdate() {
+        int size = 50000;
+        List<M3UFile> songs = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            songs.add(new M3UFile("/dir" + (i % 100), "song" + i + ".mp3"));
+        }
+        M3UPlaylist playlist = new M3UPlaylist(songs);
+        // Updating metadata keeps the index, so each update and lookup is constant time
+        long start = System.nanoTime();
+        for (int i = 0; i < size; i++) {
+            M3UFile m3u = new M3UFile(songs.get(i).path, songs.get(i).name, "Author", "Title " + i, i);
+            int index = playlist.indexOf(m3u);
+            assertEquals(i, index);
+            playlist.set(index, m3u);
+        }
+        assertTrue(System.nanoTime() - start < 2000000000L);
+        assertEquals("Title 123", playlist.get(playlist.indexOf(songs.get(123))).title);
+        assertSame(playlist.get(123), playlist.get(playlist.indexOf(new M3UFile("/dir23", "song123.mp3"))));
+
+        // A different song at the same position is found, and the old one is not
+        playlist.set(5, new M3UFile("/other", "new.mp3"));
+        assertEquals(5, playlist.indexOf(new M3UFile("/other", "new.mp3")));
+        assertEquals(-1, playlist.indexOf(songs.get(5)));
+    }
+
+    @Test
+    public void testDuplicates() {
+        List<M3UFile> songs = Arrays.asList(
+                TEST_M3U1,
+                new M3UFile("/path/./to/", "song.d00"),
+                new M3UFile("/path/x/../TO", "SONG.d00"),
+                new M3UFile("/elsewhere", "copy.adl", "OTHER author", "Other title", 456500),
+                TEST_M3U2);
+        assertArrayEquals(new int[] {-1, 0, -1, -1, -1}, M3UDuplicates.find(songs, 0));
+        assertArrayEquals(new int[] {-1, 0, 0, -1, 3}, M3UDuplicates.find(songs, M3UDuplicates.IGNORE_CASE | M3UDuplicates.METADATA));
+        // Relative songs are compared by the file they resolve to
+        List<M3UFile> relative = Arrays.asList(
+                new M3UFile("..", "a.mp3"),
+                new M3UFile(".", "a.mp3"),
+                new M3UFile("/music", "a.mp3"),
+                new M3UFile(".", "b.mp3"));
+        relative.get(0).resolver = new M3UResolver(new File("/music/sub/list.m3u"));
+        relative.get(1).resolver = new M3UResolver(new File("/music/list.m3u"));
+        relative.get(3).resolver = relative.get(0).resolver;
+        assertArrayEquals(new int[] {-1, 0, 0, -1}, M3UDuplicates.find(relative, 0));
+        assertEquals("http://host/a/b.mp3", M3UDuplicates.normalize("http://host/x/../a/.", "b.mp3"));
+        assertEquals("../b", M3UDuplicates.normalize("a/../..", "b"));
+    }
+
+    @Test
+    public void testSearch() {
+        M3UPlaylist songs = new M3UPlaylist(Arrays.asList(TEST_M3U1, TEST_M3U2, TEST_M3U3, TEST_M3U1));
+        M3USearch search = new M3USearch(songs);
+        assertArrayEquals(new int[] {1}, search.find("oth LONGER").positions(songs, 0, songs.size()));
+        assertArrayEquals(new int[] {0, 1, 3}, search.find("author").positions(songs, 0, songs.size()));
+        assertArrayEquals(new int[] {3}, search.find("author").positions(songs, 2, songs.size()));
+        assertTrue(search.find("nothing").isEmpty());
+        assertNull(search.find(" - "));
+    }
+
+    @Test
+    public void testElapsedTime() {
+        assertEquals("00:00", new M3UFile("a", "b", "", "", 999).getElapsedTimeInS());
+        assertEquals("01:15", new M3UFile("a", "b", "", "", 75000).getElapsedTimeInS());
+        assertEquals("1:02:03", new M3UFile("a", "b", "", "", 3723000).getElapsedTimeInS());
+    }
+}
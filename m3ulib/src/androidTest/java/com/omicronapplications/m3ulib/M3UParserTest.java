@@ -9,18 +9,44 @@ import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.PipedInputStream;
+import java.io.PipedOutputStream;
 import java.io.PrintStream;
+import java.io.StringWriter;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.zip.GZIPOutputStream;
 
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
 @RunWith(AndroidJUnit4.class)
 public class M3UParserTest {
@@ -56,7 +82,12 @@ public class M3UParserTest {
     private CountDownLatch mLatch;
     boolean mLoaded;
     List<M3UFile> mSongs;
+    List<M3UFile> mChunked;
+    List<Integer> mChunks;
+    List<M3UChange> mChanges;
+    int mWrites;
     String mStr;
+    boolean mRemoved;
 
     private File fileFromString(File path, String fileName, String str) {
         File f = new File(path, fileName);
@@ -70,7 +101,36 @@ public class M3UParserTest {
         return f;
     }
 
-    private class M3UCallback implements IM3UCallback {
+    private File fileFromBytes(File path, String fileName, byte[] bytes) {
+        File f = new File(path, fileName);
+        try {
+            FileOutputStream fos = new FileOutputStream(f);
+            fos.write(bytes);
+            fos.close();
+        } catch (IOException e) {
+            assertFalse(e.getMessage(), false);
+        }
+        return f;
+    }
+
+    private String stringFromFile(File f) {
+        StringBuilder sb = new StringBuilder();
+        try {
+            FileInputStream fis = new FileInputStream(f);
+            InputStreamReader isr = new InputStreamReader(fis, "UTF-8");
+            char[] buf = new char[1024];
+            int len;
+            while ((len = isr.read(buf)) > 0) {
+                sb.append(buf, 0, len);
+            }
+            isr.close();
+        } catch (IOException e) {
+            assertFalse(e.getMessage(), false);
+        }
+        return sb.toString();
+    }
+
+    private class M3UCallback implements IM3UCallback, IM3UChunkCallback, IM3UChangeCallback {
         @Override
         public void onM3ULoaded(boolean isLoaded) {
             mLoaded = isLoaded;
@@ -83,8 +143,30 @@ public class M3UParserTest {
             mLatch.countDown();
         }
 
+        @Override
+        public void onM3UChunk(List<M3UFile> songs, int offset, boolean last) {
+            if (mChunks != null) {
+                assertEquals(mChunked.size(), offset);
+                mChunked.addAll(songs);
+                mChunks.add(songs.size());
+                if (last) {
+                    mLatch.countDown();
+                }
+            }
+        }
+
+        @Override
+        public void onM3UChanged(List<M3UChange> changes, List<M3UFile> songs) {
+            if (mChanges != null) {
+                mChanges.addAll(changes);
+                mSongs = songs;
+                mLatch.countDown();
+            }
+        }
+
         @Override
         public void onM3UWrite(File list) {
+            mWrites++;
             mLatch.countDown();
         }
 
@@ -95,6 +177,64 @@ public class M3UParserTest {
         }
     }
 
+    // Loopback stand-in for a playlist server, answering with gzip and an ETag, or 304 when the ETag matches
+    private static class PlaylistServer implements Runnable {
+        private final ServerSocket mSocket;
+        volatile String mBody;
+        volatile String mETag;
+        volatile int mRequests;
+        volatile int mNotModified;
+
+        PlaylistServer() throws IOException {
+            mSocket = new ServerSocket(0, 8, InetAddress.getByName("127.0.0.1"));
+            new Thread(this).start();
+        }
+
+        URI getURI() {
+            return URI.create("http://127.0.0.1:" + mSocket.getLocalPort() + "/list.m3u8");
+        }
+
+        @Override
+        public void run() {
+            while (!mSocket.isClosed()) {
+                try {
+                    Socket socket = mSocket.accept();
+                    BufferedReader reader = new BufferedReader(new InputStreamReader(socket.getInputStream(), "ISO-8859-1"));
+                    String ifNoneMatch = null;
+                    String line = reader.readLine();
+                    while (line != null && !line.isEmpty()) {
+                        if (line.toLowerCase().startsWith("if-none-match:")) {
+                            ifNoneMatch = line.substring(line.indexOf(':') + 1).trim();
+                        }
+                        line = reader.readLine();
+                    }
+                    mRequests++;
+                    OutputStream os = socket.getOutputStream();
+                    if (mETag.equals(ifNoneMatch)) {
+                        mNotModified++;
+                        os.write(("HTTP/1.1 304 Not Modified\r\nETag: " + mETag + "\r\nConnection: close\r\n\r\n").getBytes("ISO-8859-1"));
+                    } else {
+                        ByteArrayOutputStream body = new ByteArrayOutputStream();
+                        GZIPOutputStream gzip = new GZIPOutputStream(body);
+                        gzip.write(mBody.getBytes("UTF-8"));
+                        gzip.close();
+                        os.write(("HTTP/1.1 200 OK\r\nContent-Type: audio/x-mpegurl; charset=utf-8\r\nContent-Encoding: gzip\r\n" +
+                                "ETag: " + mETag + "\r\nContent-Length: " + body.size() + "\r\nConnection: close\r\n\r\n").getBytes("ISO-8859-1"));
+                        body.writeTo(os);
+                    }
+                    os.flush();
+                    socket.close();
+                } catch (IOException e) {
+                    // Closed
+                }
+            }
+        }
+
+        void close() throws IOException {
+            mSocket.close();
+        }
+    }
+
     private void await() {
         try {
             assertTrue(mLatch.await(TEST_TIMEOUT, TimeUnit.MILLISECONDS));
@@ -121,6 +261,7 @@ public class M3UParserTest {
     @Test
     public void testSongs() {
         mParser = new M3UParser(mAppContext, mCallback);
+        mParser.setChangeCallback(mCallback);
         mLatch = new CountDownLatch(2);
         mParser.load(EMPTY_M3U, M3UParser.STORAGE_INTERNAL);
         await();
@@ -154,8 +295,9 @@ public class M3UParserTest {
         assertTrue(mParser.songExists(mSongs, TEST_M3U2));
         assertEquals(1, mParser.songIndex(mSongs, TEST_M3U2));
 
-        mLatch = new CountDownLatch(1);
+        mLatch = new CountDownLatch(2);
         mParser.addSong(TEST_M3U3);
+        mParser.listSongs();
         await();
         assertTrue(mParser.songExists(mSongs, TEST_M3U3));
         assertEquals(2, mParser.songIndex(mSongs, TEST_M3U3));
@@ -177,13 +319,15 @@ public class M3UParserTest {
         await();
         assertFalse(mParser.songExists(mSongs, TEST_M3U1));
 
-        mLatch = new CountDownLatch(1);
+        mLatch = new CountDownLatch(2);
         mParser.removeSong(TEST_M3U2);
+        mParser.listSongs();
         await();
         assertFalse(mParser.songExists(mSongs, TEST_M3U2));
 
-        mLatch = new CountDownLatch(1);
+        mLatch = new CountDownLatch(2);
         mParser.removeSong(TEST_M3U3);
+        mParser.listSongs();
         await();
         assertFalse(mParser.songExists(mSongs, TEST_M3U3));
 
@@ -196,6 +340,7 @@ public class M3UParserTest {
     @Test
     public void testM3U() {
         mParser = new M3UParser(mAppContext, mCallback);
+        mParser.setChangeCallback(mCallback);
         mLatch = new CountDownLatch(2);
         mParser.load(mTestM3U);
         await();
@@ -241,4 +386,1033 @@ public class M3UParserTest {
         await();
         assertTrue(mTestM3U.exists());
    }
+
+    @Test
+    public void testStream() {
+        mParser = new M3UParser(mAppContext, mCallback);
+        mParser.setChangeCallback(mCallback);
+        mParser.setChunkCallback(mCallback);
+        assertSame(mCallback, mParser.getChunkCallback());
+        mChunked = new ArrayList<>();
+        mChunks = new ArrayList<>();
+        mLatch = new CountDownLatch(1);
+        mParser.stream(mTestM3U, 2);
+        await();
+        assertFalse(mParser.isLoaded());
+        assertEquals(3, mChunked.size());
+        assertEquals(3, mChunks.size());
+        assertEquals(2, (int) mChunks.get(0));
+        assertEquals(1, (int) mChunks.get(1));
+        assertEquals(0, (int) mChunks.get(2));
+        assertEquals(0, mParser.songIndex(mChunked, TEST_PATH1, TEST_SONG1));
+        assertEquals(1, mParser.songIndex(mChunked, TEST_PATH2, TEST_SONG2));
+        assertEquals(2, mParser.songIndex(mChunked, TEST_PATH3, TEST_SONG3));
+    }
+
+    @Test
+    public void testExtInf() {
+        String str =
+                "#EXTM3U" + System.getProperty("line.separator") +
+                "#EXTINF : 12 ,  Spaced author  -  Spaced title  " + System.getProperty("line.separator") +
+                TEST_PATH1 + File.separator + TEST_SONG1 + System.getProperty("line.separator") +
+                "#EXTINF:34, - Untitled author" + System.getProperty("line.separator") +
+                TEST_PATH2 + File.separator + TEST_SONG2 + System.getProperty("line.separator") +
+                "#EXTINF:56, No separator" + System.getProperty("line.separator") +
+                TEST_PATH3 + File.separator + TEST_SONG3 + System.getProperty("line.separator");
+        File m3uFile = fileFromString(mAppContext.getFilesDir(), EMPTY_M3U, str);
+        mParser = new M3UParser(mAppContext, mCallback);
+        mParser.setChangeCallback(mCallback);
+        mLatch = new CountDownLatch(2);
+        mParser.load(m3uFile);
+        await();
+        assertNotNull(mSongs);
+        assertEquals(3, mSongs.size());
+
+        M3UFile m3u = mSongs.get(0);
+        assertEquals(TEST_PATH1, m3u.path);
+        assertEquals(TEST_SONG1, m3u.name);
+        assertEquals("Spaced author", m3u.author);
+        assertEquals("Spaced title", m3u.title);
+        assertEquals(12000, m3u.songlength);
+
+        m3u = mSongs.get(1);
+        assertEquals("", m3u.author);
+        assertEquals("Untitled author", m3u.title);
+        assertEquals(34000, m3u.songlength);
+
+        m3u = mSongs.get(2);
+        assertTrue(m3u.extended);
+        assertEquals("", m3u.author);
+        assertEquals("No separator", m3u.title);
+        assertEquals(56000, m3u.songlength);
+    }
+
+    @Test
+    public void testAddSongsAttributes() throws IOException {
+        File iptv = fileFromString(mAppContext.getCacheDir(), "iptv.m3u",
+                "#EXTM3U\n#EXTINF:-1 tvg-id=\"cnn.us\",CNN International\n#EXTGRP:News\nhttp://stream.example.com/cnn.m3u8\nlocal.mp3\n");
+        // Lazy songs, not decoded before they are added
+        M3UReader reader = new M3UReader(iptv, true);
+        List<M3UFile> songs = new ArrayList<>();
+        reader.read(songs, Integer.MAX_VALUE);
+        reader.close();
+        iptv.delete();
+
+        mParser = new M3UParser(mAppContext, mCallback);
+        mParser.setChangeCallback(mCallback);
+        mLatch = new CountDownLatch(2);
+        mParser.load(mEmptyM3U);
+        await();
+        mParser.setWriteDelay(10 * TEST_TIMEOUT);
+        mLatch = new CountDownLatch(1);
+        mParser.addSongs(songs);
+        mParser.flush();
+        await();
+        String str = stringFromFile(mEmptyM3U);
+        assertTrue(str, str.contains("#EXTINF:-1 tvg-id=\"cnn.us\", CNN International"));
+        assertTrue(str, str.contains("#EXTGRP:News"));
+
+        // Relative songs are resolved against the playlist they were added to
+        mLatch = new CountDownLatch(1);
+        mParser.listSongs();
+        await();
+        assertEquals("http://stream.example.com/cnn.m3u8", mSongs.get(0).getFullPath());
+        assertEquals(new File(mAppContext.getFilesDir(), "local.mp3").getAbsolutePath(), mSongs.get(1).getFullPath());
+    }
+
+    @Test
+    public void testRemote() throws IOException, InterruptedException {
+        PlaylistServer server = new PlaylistServer();
+        URI uri = server.getURI();
+        File list = M3URemote.getListFile(mAppContext.getCacheDir(), uri);
+        list.delete();
+        M3UCache.getCacheFile(mAppContext.getCacheDir(), list).delete();
+        server.mBody = M3U_FILE;
+        server.mETag = "\"v1\"";
+        List<M3UFile> expected = Arrays.asList(new M3UFile(TEST_PATH1, TEST_SONG1), new M3UFile(TEST_PATH2, TEST_SONG2), new M3UFile(TEST_PATH3, TEST_SONG3));
+        String host = uri.getScheme() + "://" + uri.getAuthority();
+        String dir = uri.toString().substring(0, uri.toString().lastIndexOf('/') + 1);
+        try {
+            mParser = new M3UParser(mAppContext, mCallback);
+            mParser.setChangeCallback(mCallback);
+            mLatch = new CountDownLatch(2);
+            mParser.load(uri);
+            await();
+            assertTrue(mLoaded);
+            assertEquals(expected, mSongs);
+            assertEquals("Some author", mSongs.get(0).author);
+            assertEquals(host + TEST_PATH1 + "/" + TEST_SONG1, mSongs.get(0).getFullPath());
+            assertEquals(dir + TEST_PATH3 + "/" + TEST_SONG3, mSongs.get(2).getFullPath());
+            assertEquals(M3U_FILE, stringFromFile(list));
+            assertEquals(1, server.mRequests);
+            assertTrue(M3UCache.getCacheFile(mAppContext.getCacheDir(), list).exists());
+
+            // Unchanged on the server, read from the local copy and its snapshot
+            mLatch = new CountDownLatch(1);
+            mParser.unload();
+            await();
+            mLatch = new CountDownLatch(2);
+            mParser.load(uri);
+            await();
+            assertEquals(2, server.mRequests);
+            assertEquals(1, server.mNotModified);
+            assertEquals(expected, mSongs);
+            assertEquals("Other title", mSongs.get(1).title);
+            assertEquals(dir + TEST_PATH3 + "/" + TEST_SONG3, mSongs.get(2).getFullPath());
+
+            server.mBody = "#EXTM3U\n#EXTINF:-1 tvg-id=\"a\",Stream\nhttp://127.0.0.1/stream\n";
+            server.mETag = "\"v2\"";
+            mLatch = new CountDownLatch(2);
+            mParser.load(uri);
+            await();
+            assertEquals(3, server.mRequests);
+            assertEquals(1, mSongs.size());
+            assertEquals("a", mSongs.get(0).getAttribute("tvg-id"));
+            assertEquals("http://127.0.0.1", mSongs.get(0).path);
+            assertEquals("http://127.0.0.1/stream", mSongs.get(0).getFullPath());
+
+            // Unreachable, the local copy is used
+            server.close();
+            mLatch = new CountDownLatch(2);
+            mParser.load(uri);
+            await();
+            assertTrue(mLoaded);
+            assertEquals(1, mSongs.size());
+            assertEquals(-1000, mSongs.get(0).songlength);
+
+            // Unreachable without a local copy, nothing is loaded
+            list.delete();
+            mLatch = new CountDownLatch(1);
+            mParser.load(uri);
+            await();
+            assertFalse(mLoaded);
+            assertFalse(list.exists());
+
+            // Requests wait while a stream is fetched, a load replaced before it was handled closes its stream
+            PipedOutputStream pipe = new PipedOutputStream();
+            final CountDownLatch ranged = new CountDownLatch(1);
+            final AtomicBoolean closed = new AtomicBoolean(false);
+            mLatch = new CountDownLatch(4);
+            mParser.load(new PipedInputStream(pipe), mEmptyM3U);
+            mParser.getRange(mTestM3U, 0, 1, new IM3URangeCallback() {
+                @Override
+                public void onM3URange(File list, int from, List<M3UFile> songs, int count) {
+                    ranged.countDown();
+                }
+            });
+            assertTrue(ranged.await(5, TimeUnit.SECONDS));
+            mParser.load(new ByteArrayInputStream(M3U_FILE.getBytes("UTF-8")) {
+                @Override
+                public void close() {
+                    closed.set(true);
+                }
+            }, mEmptyM3U);
+            mParser.load(new ByteArrayInputStream(M3U_FILE.getBytes("UTF-8")), mEmptyM3U);
+            assertTrue(closed.get());
+            pipe.write(("/path\n").getBytes("UTF-8"));
+            pipe.close();
+            await();
+            assertTrue(mLoaded);
+            assertEquals(expected, mSongs);
+
+            mLatch = new CountDownLatch(2);
+            mParser.load(new ByteArrayInputStream(M3U_FILE.getBytes("UTF-8")), mEmptyM3U);
+            await();
+            assertEquals(expected, mSongs);
+            assertEquals(M3U_FILE, stringFromFile(mEmptyM3U));
+            mParser.quit();
+        } finally {
+            server.close();
+            list.delete();
+        }
+    }
+
+    @Test
+    public void testCharset() throws IOException {
+        String song = TEST_PATH1 + File.separator + "Caf\u00e9 \u00e5\u00e4\u00f6.d00";
+        String str = "#EXTM3U\n#EXTINF:123, Bj\u00f6rk - S\u00e5ng\n" + song + "\n";
+        File m3uFile = fileFromBytes(mAppContext.getFilesDir(), EMPTY_M3U, str.getBytes("ISO-8859-1"));
+        M3UReader reader = new M3UReader(m3uFile);
+        M3UFile m3u = reader.next();
+        reader.close();
+        assertNotNull(m3u);
+        assertEquals("ISO-8859-1", reader.getCharset().name());
+        assertEquals(new M3UFile(song), m3u);
+        assertEquals("Bj\u00f6rk", m3u.author);
+        assertEquals("S\u00e5ng", m3u.title);
+
+        m3uFile = fileFromBytes(mAppContext.getFilesDir(), EMPTY_M3U, ("\ufeff" + str).getBytes("UTF-8"));
+        reader = new M3UReader(m3uFile);
+        m3u = reader.next();
+        reader.close();
+        assertNotNull(m3u);
+        assertEquals("UTF-8", reader.getCharset().name());
+        assertEquals(new M3UFile(song), m3u);
+        assertEquals("Bj\u00f6rk", m3u.author);
+    }
+
+    @Test
+    public void testBatch() {
+        mParser = new M3UParser(mAppContext, mCallback);
+        mParser.setChangeCallback(mCallback);
+        mLatch = new CountDownLatch(2);
+        mParser.load(EMPTY_M3U, M3UParser.STORAGE_INTERNAL);
+        await();
+        assertTrue(mParser.isLoaded());
+
+        mWrites = 0;
+        mLatch = new CountDownLatch(2);
+        mParser.beginBatch();
+        mParser.addSongs(Arrays.asList(TEST_M3U1, TEST_M3U2));
+        mParser.addSong(TEST_M3U3);
+        mParser.addSong(TEST_M3U1);
+        mParser.commitBatch();
+        mParser.listSongs();
+        await();
+        assertEquals(1, mWrites);
+        assertEquals(3, mSongs.size());
+        assertEquals(2, mParser.songIndex(mSongs, TEST_M3U3));
+
+        mLatch = new CountDownLatch(2);
+        mParser.removeSongs(Arrays.asList(TEST_M3U1, TEST_M3U3));
+        mParser.listSongs();
+        await();
+        assertEquals(2, mWrites);
+        assertEquals(1, mSongs.size());
+        assertEquals(0, mParser.songIndex(mSongs, TEST_M3U2));
+
+        mLatch = new CountDownLatch(1);
+        mParser.unload();
+        await();
+    }
+
+    @Test
+    public void testWriteDelay() {
+        mParser = new M3UParser(mAppContext, mCallback);
+        mParser.setChangeCallback(mCallback);
+        mLatch = new CountDownLatch(2);
+        mParser.load(EMPTY_M3U, M3UParser.STORAGE_INTERNAL);
+        await();
+        assertTrue(mParser.isLoaded());
+
+        mWrites = 0;
+        mParser.setWriteDelay(TEST_TIMEOUT / 4);
+        mLatch = new CountDownLatch(1);
+        mParser.addSong(TEST_M3U1);
+        mParser.addSong(TEST_M3U2);
+        mParser.listSongs();
+        await();
+        assertTrue(mParser.isDirty());
+        assertEquals(0, mWrites);
+
+        mLatch = new CountDownLatch(1);
+        await();
+        assertFalse(mParser.isDirty());
+        assertEquals(1, mWrites);
+
+        mParser.setWriteDelay(10 * TEST_TIMEOUT);
+        mLatch = new CountDownLatch(1);
+        mParser.addSong(TEST_M3U3);
+        mParser.flush();
+        await();
+        assertFalse(mParser.isDirty());
+        assertEquals(2, mWrites);
+
+        mLatch = new CountDownLatch(1);
+        mParser.removeSong(TEST_M3U3);
+        mParser.unload();
+        await();
+        assertFalse(mParser.isDirty());
+        assertEquals(3, mWrites);
+    }
+
+    @Test
+    public void testAppend() {
+        String comment = "#EXTVLCOPT:network-caching=1000" + System.getProperty("line.separator");
+        File m3uFile = fileFromString(mAppContext.getFilesDir(), EMPTY_M3U, M3U_FILE + comment);
+        mParser = new M3UParser(mAppContext, mCallback);
+        mParser.setChangeCallback(mCallback);
+        mLatch = new CountDownLatch(2);
+        mParser.load(m3uFile);
+        await();
+        assertTrue(mParser.isLoaded());
+
+        mLatch = new CountDownLatch(1);
+        mParser.addSong(TEST_M3U1);
+        await();
+        String str = stringFromFile(m3uFile);
+        assertTrue(str.startsWith(M3U_FILE + comment));
+        assertTrue(str.endsWith(TEST_M3U1.name + System.getProperty("line.separator")));
+
+        mLatch = new CountDownLatch(1);
+        mParser.removeSong(TEST_PATH1, TEST_SONG1);
+        await();
+        str = stringFromFile(m3uFile);
+        assertFalse(str.contains(comment));
+        assertTrue(str.endsWith(TEST_M3U1.name + System.getProperty("line.separator")));
+
+        mLatch = new CountDownLatch(2);
+        mParser.dump();
+        mParser.unload();
+        await();
+        assertEquals(mStr, stringFromFile(m3uFile));
+    }
+
+    @Test
+    public void testManager() {
+        M3UManager manager = new M3UManager(mAppContext, 2);
+        M3UParser parser1 = manager.open(mCallback);
+        M3UParser parser2 = manager.open(mCallback);
+        M3UParser parser3 = manager.open(mCallback);
+        M3UParser remote = manager.openRemote(mCallback);
+        for (M3UParser parser : Arrays.asList(parser1, parser2, parser3, remote)) {
+            parser.setChangeCallback(mCallback);
+        }
+        assertEquals(2, manager.getThreadCount());
+        assertEquals(4, manager.getParsers().size());
+
+        mLatch = new CountDownLatch(4);
+        parser1.load(EMPTY_M3U, M3UParser.STORAGE_INTERNAL);
+        parser2.load(mTestM3U);
+        await();
+        assertTrue(parser1.isLoaded());
+        assertTrue(parser2.isLoaded());
+        assertFalse(parser3.isLoaded());
+
+        mLatch = new CountDownLatch(1);
+        parser2.listSongs();
+        await();
+        assertEquals(3, mSongs.size());
+
+        manager.close(parser3);
+        assertTrue(parser3.isQuit());
+        manager.close(remote);
+        assertTrue(remote.isQuit());
+        assertEquals(2, manager.getParsers().size());
+
+        mWrites = 0;
+        mLatch = new CountDownLatch(1);
+        parser1.setWriteDelay(10 * TEST_TIMEOUT);
+        parser1.addSong(TEST_M3U1);
+        manager.quit();
+        await();
+        assertEquals(1, mWrites);
+        assertTrue(parser1.isQuit());
+        assertTrue(parser2.isQuit());
+        assertEquals(0, manager.getThreadCount());
+        assertNull(manager.open(mCallback));
+    }
+
+    @Test
+    public void testLoadAll() {
+        String str =
+                "#EXTM3U" + System.getProperty("line.separator") +
+                "#EXTINF:456, Other author - Other title" + System.getProperty("line.separator") +
+                TEST_PATH2 + File.separator + TEST_SONG2 + System.getProperty("line.separator") +
+                TEST_M3U1.getFullPath() + System.getProperty("line.separator");
+        File m3uFile = fileFromString(mAppContext.getFilesDir(), EMPTY_M3U, str);
+        File missing = new File(mAppContext.getFilesDir(), "missing.m3u");
+        final List<File> lists = Arrays.asList(mTestM3U, m3uFile, missing);
+        final Map<File, List<M3UFile>> loaded = new ConcurrentHashMap<>();
+        final List<List<M3UFile>> merged = new ArrayList<>();
+        M3UManager manager = new M3UManager(mAppContext);
+        mLatch = new CountDownLatch(1);
+        manager.loadAll(lists, true, new IM3ULoadCallback() {
+            @Override
+            public void onM3UFileLoaded(File list, List<M3UFile> songs) {
+                if (songs == null) {
+                    // Still reported in onM3UAllLoaded()
+                    throw new IllegalStateException("not read: " + list);
+                }
+                loaded.put(list, songs);
+            }
+
+            @Override
+            public void onM3UAllLoaded(Map<File, List<M3UFile>> results, List<M3UFile> songs) {
+                assertEquals(lists, new ArrayList<>(results.keySet()));
+                assertNull(results.get(lists.get(2)));
+                merged.add(songs);
+                mLatch.countDown();
+            }
+        });
+        await();
+        manager.quit();
+        assertEquals(2, loaded.size());
+        assertEquals(3, loaded.get(mTestM3U).size());
+        assertEquals(2, loaded.get(m3uFile).size());
+        List<M3UFile> songs = merged.get(0);
+        assertEquals(4, songs.size());
+        assertEquals(1, songs.indexOf(new M3UFile(TEST_PATH2, TEST_SONG2)));
+        assertEquals(3, songs.indexOf(TEST_M3U1));
+    }
+
+    @Test
+    public void testCache() {
+        File cache = M3UCache.getCacheFile(mAppContext.getCacheDir(), mTestM3U);
+        cache.delete();
+        mParser = new M3UParser(mAppContext, mCallback);
+        mParser.setChangeCallback(mCallback);
+        mParser.setCacheEnabled(true);
+        mLatch = new CountDownLatch(2);
+        mParser.load(mTestM3U);
+        await();
+        assertTrue(cache.exists());
+        List<M3UFile> songs = mSongs;
+
+        // Unchanged, so neither the playlist nor its snapshot is written again
+        mWrites = 0;
+        long modified = mTestM3U.lastModified();
+        mLatch = new CountDownLatch(1);
+        mParser.unload();
+        await();
+        assertEquals(0, mWrites);
+        assertEquals(modified, mTestM3U.lastModified());
+        mLatch = new CountDownLatch(2);
+        mParser.load(mTestM3U);
+        await();
+        assertEquals(songs, mSongs);
+        for (int i = 0; i < songs.size(); i++) {
+            assertEquals(songs.get(i).author, mSongs.get(i).author);
+            assertEquals(songs.get(i).title, mSongs.get(i).title);
+            assertEquals(songs.get(i).songlength, mSongs.get(i).songlength);
+        }
+
+        mLatch = new CountDownLatch(1);
+        mParser.unload();
+        await();
+        fileFromString(mAppContext.getFilesDir(), TEST_M3U, TEST_M3U1.getFullPath() + System.getProperty("line.separator"));
+        mLatch = new CountDownLatch(2);
+        mParser.load(mTestM3U);
+        await();
+        assertEquals(1, mSongs.size());
+        assertEquals(TEST_M3U1, mSongs.get(0));
+
+        // A modified playlist written by the next load gets its snapshot written too
+        long cached = cache.length();
+        mParser.setWriteDelay(60000);
+        mChanges = new ArrayList<>();
+        mLatch = new CountDownLatch(1);
+        mParser.addSong(TEST_M3U2);
+        await();
+        mChanges = null;
+        mWrites = 0;
+        mLatch = new CountDownLatch(3);
+        mParser.load(mEmptyM3U);
+        await();
+        assertEquals(1, mWrites);
+        assertTrue(cache.length() > cached);
+        mParser.setWriteDelay(0);
+
+        mLatch = new CountDownLatch(1);
+        mParser.unload();
+        await();
+        cache.delete();
+    }
+
+    @Test
+    public void testSnapshot() {
+        mParser = new M3UParser(mAppContext, mCallback);
+        mParser.setChangeCallback(mCallback);
+        mLatch = new CountDownLatch(2);
+        mParser.load(mTestM3U);
+        await();
+        List<M3UFile> loaded = mSongs;
+        assertTrue(loaded instanceof M3UList);
+        long version = ((M3UList) loaded).getVersion();
+
+        mLatch = new CountDownLatch(2);
+        mParser.addSong(TEST_M3U1);
+        mParser.listSongs();
+        await();
+        assertEquals(3, loaded.size());
+        assertFalse(loaded.contains(TEST_M3U1));
+        assertEquals(4, mSongs.size());
+        assertTrue(mSongs.contains(TEST_M3U1));
+        assertTrue(((M3UList) mSongs).getVersion() > version);
+        for (int i = 0; i < loaded.size(); i++) {
+            assertSame(loaded.get(i), mSongs.get(i));
+        }
+
+        try {
+            mSongs.add(TEST_M3U2);
+            fail();
+        } catch (UnsupportedOperationException e) {
+            assertEquals(4, mSongs.size());
+        }
+
+        mLatch = new CountDownLatch(1);
+        mParser.unload();
+        await();
+    }
+
+    @Test
+    public void testChanges() {
+        mParser = new M3UParser(mAppContext, mCallback);
+        mParser.setChangeCallback(mCallback);
+        mLatch = new CountDownLatch(2);
+        mParser.load(mTestM3U);
+        await();
+        mChanges = new ArrayList<>();
+
+        mLatch = new CountDownLatch(2);
+        mParser.addSong(TEST_M3U1);
+        await();
+        assertEquals(Arrays.asList(new M3UChange(M3UChange.INSERTED, 3, 1, -1)), mChanges);
+        assertEquals(4, mSongs.size());
+
+        mChanges.clear();
+        mLatch = new CountDownLatch(2);
+        mParser.beginBatch();
+        mParser.addSongs(Arrays.asList(TEST_M3U2, TEST_M3U3));
+        mParser.removeSong(TEST_PATH1, TEST_SONG1);
+        mParser.removeSong(TEST_PATH2, TEST_SONG2);
+        mParser.commitBatch();
+        await();
+        assertEquals(Arrays.asList(
+                new M3UChange(M3UChange.INSERTED, 4, 2, -1),
+                new M3UChange(M3UChange.REMOVED, 0, 2, -1)), mChanges);
+        assertEquals(4, mSongs.size());
+        assertEquals(TEST_M3U1, mSongs.get(1));
+
+        mChanges.clear();
+        mLatch = new CountDownLatch(2);
+        mParser.addSong(new M3UFile(TEST_M3U2.path, TEST_M3U2.name, "New author", "New title", 1000));
+        await();
+        assertEquals(Arrays.asList(new M3UChange(M3UChange.UPDATED, 2, 1, -1)), mChanges);
+        assertEquals("New author", mSongs.get(2).author);
+
+        mChanges.clear();
+        mLatch = new CountDownLatch(1);
+        mParser.addSong(TEST_M3U1);
+        mParser.listSongs();
+        await();
+        assertTrue(mChanges.isEmpty());
+
+        // Without a change callback, modifications are reported through onM3UList()
+        mChanges = null;
+        mParser.setChangeCallback(null);
+        mLatch = new CountDownLatch(2);
+        mParser.removeSong(TEST_M3U1.path, TEST_M3U1.name);
+        await();
+        assertEquals(3, mSongs.size());
+        assertEquals(-1, mParser.songIndex(mSongs, TEST_M3U1.path, TEST_M3U1.name));
+
+        mLatch = new CountDownLatch(1);
+        mParser.unload();
+        await();
+    }
+
+    @Test
+    public void testCompact() throws IOException {
+        String str =
+                "#EXTM3U" + System.getProperty("line.separator") +
+                "#EXTINF:123, Some author - Some title" + System.getProperty("line.separator") +
+                TEST_PATH1 + File.separator + TEST_SONG1 + System.getProperty("line.separator") +
+                "#EXTINF:456, Some author - Other title" + System.getProperty("line.separator") +
+                TEST_PATH1 + File.separator + TEST_SONG2 + System.getProperty("line.separator") +
+                TEST_PATH3 + File.separator + TEST_SONG3 + System.getProperty("line.separator");
+        File m3uFile = fileFromString(mAppContext.getFilesDir(), EMPTY_M3U, str);
+        List<M3UFile> expected = new ArrayList<>();
+        M3UReader reader = new M3UReader(m3uFile);
+        reader.read(expected, Integer.MAX_VALUE);
+        reader.close();
+        assertEquals(3, expected.size());
+        assertSame(expected.get(0).path, expected.get(1).path);
+        assertSame(expected.get(0).author, expected.get(1).author);
+
+        final List<List<M3UFile>> loaded = new ArrayList<>();
+        M3UManager manager = new M3UManager(mAppContext);
+        manager.setCompact(true);
+        mLatch = new CountDownLatch(1);
+        manager.loadAll(Arrays.asList(m3uFile), false, new IM3ULoadCallback() {
+            @Override
+            public void onM3UFileLoaded(File list, List<M3UFile> songs) {
+                loaded.add(songs);
+            }
+
+            @Override
+            public void onM3UAllLoaded(Map<File, List<M3UFile>> results, List<M3UFile> songs) {
+                assertNull(songs);
+                mLatch.countDown();
+            }
+        });
+        await();
+        manager.quit();
+        List<M3UFile> songs = loaded.get(0);
+        assertTrue(songs instanceof M3UCompactList);
+        assertEquals(expected, songs);
+        for (int i = 0; i < expected.size(); i++) {
+            assertEquals(expected.get(i).extended, songs.get(i).extended);
+            assertEquals(expected.get(i).author, songs.get(i).author);
+            assertEquals(expected.get(i).title, songs.get(i).title);
+            assertEquals(expected.get(i).songlength, songs.get(i).songlength);
+        }
+        assertSame(songs.get(0).path, songs.get(1).path);
+        assertEquals(2, songs.indexOf(new M3UFile(TEST_PATH3, TEST_SONG3)));
+        m3uFile.delete();
+    }
+
+    @Test
+    public void testLazy() throws IOException {
+        List<M3UFile> songs = new ArrayList<>();
+        M3UReader reader = new M3UReader(mTestM3U, true);
+        reader.read(songs, Integer.MAX_VALUE);
+        reader.close();
+        assertEquals(3, songs.size());
+        assertTrue(songs.get(0).extended);
+        assertNull(songs.get(0).author);
+        M3UFile m3u = M3UList.of(songs).get(0);
+        assertEquals("Some author", m3u.author);
+        assertEquals("Some title", m3u.title);
+        assertEquals(123000, m3u.songlength);
+
+        mParser = new M3UParser(mAppContext, mCallback);
+        mParser.setChangeCallback(mCallback);
+        mParser.setLazyEnabled(true);
+        mLatch = new CountDownLatch(2);
+        mParser.load(mTestM3U);
+        await();
+        assertEquals(3, mSongs.size());
+        assertTrue(mParser.songExists(mSongs, TEST_PATH2, TEST_SONG2));
+        assertEquals("Other author", mSongs.get(1).author);
+        assertEquals("A title", mSongs.get(2).title);
+
+        mLatch = new CountDownLatch(1);
+        mParser.dump();
+        await();
+        assertEquals(M3U_FILE, mStr);
+
+        mLatch = new CountDownLatch(1);
+        mParser.unload();
+        await();
+    }
+
+    @Test
+    public void testRange() {
+        StringBuilder sb = new StringBuilder("#EXTM3U" + System.getProperty("line.separator"));
+        for (int i = 0; i < 3000; i++) {
+            sb.append("#EXTINF:").append(i).append(", Author ").append(i).append(" - Title ").append(i).append(System.getProperty("line.separator"));
+            sb.append(TEST_PATH1).append(File.separator).append(i).append(".d00").append(System.getProperty("line.separator"));
+        }
+        File m3uFile = fileFromString(mAppContext.getFilesDir(), EMPTY_M3U, sb.toString());
+        File index = M3UIndex.getIndexFile(mAppContext.getCacheDir(), m3uFile);
+        final List<M3UFile> range = new ArrayList<>();
+        final int[] count = new int[1];
+        IM3URangeCallback callback = new IM3URangeCallback() {
+            @Override
+            public void onM3URange(File list, int from, List<M3UFile> songs, int total) {
+                range.clear();
+                range.addAll(songs);
+                count[0] = total;
+                mLatch.countDown();
+            }
+        };
+        mParser = new M3UParser(mAppContext, mCallback);
+        mParser.setChangeCallback(mCallback);
+        mParser.setCacheEnabled(true);
+
+        mLatch = new CountDownLatch(1);
+        mParser.getRange(m3uFile, 1500, 1510, callback);
+        await();
+        assertEquals(3000, count[0]);
+        assertEquals(10, range.size());
+        assertEquals(new M3UFile(TEST_PATH1, "1500.d00"), range.get(0));
+        assertEquals("Author 1509", range.get(9).author);
+        assertEquals("Title 1509", range.get(9).title);
+        assertEquals(1509000, range.get(9).songlength);
+        assertTrue(index.exists());
+
+        mLatch = new CountDownLatch(1);
+        mParser.getRange(m3uFile, 2995, 3100, callback);
+        await();
+        assertEquals(5, range.size());
+
+        sb.append(TEST_PATH3).append(File.separator).append(TEST_SONG3).append(System.getProperty("line.separator"));
+        fileFromString(mAppContext.getFilesDir(), EMPTY_M3U, sb.toString());
+        m3uFile.setLastModified(m3uFile.lastModified() + 2000);
+        mLatch = new CountDownLatch(1);
+        mParser.getSong(m3uFile, 3000, callback);
+        await();
+        assertEquals(3001, count[0]);
+        assertEquals(1, range.size());
+        assertEquals(new M3UFile(TEST_PATH3, TEST_SONG3), range.get(0));
+        assertFalse(range.get(0).extended);
+
+        mParser.quit();
+        index.delete();
+        m3uFile.delete();
+    }
+
+    @Test
+    public void testSearch() {
+        final List<Integer> found = new ArrayList<>();
+        IM3USearchCallback callback = new IM3USearchCallback() {
+            @Override
+            public void onM3USearch(String query, int[] indices, int offset, boolean last) {
+                assertEquals(found.size(), offset);
+                for (int index : indices) {
+                    found.add(index);
+                }
+                if (last) {
+                    mLatch.countDown();
+                }
+            }
+        };
+        mParser = new M3UParser(mAppContext, mCallback);
+        mParser.setChangeCallback(mCallback);
+        mLatch = new CountDownLatch(2);
+        mParser.load(mTestM3U);
+        await();
+
+        found.clear();
+        mLatch = new CountDownLatch(1);
+        mParser.search("AUTH", callback);
+        await();
+        assertEquals(Arrays.asList(0, 1, 2), found);
+
+        found.clear();
+        mLatch = new CountDownLatch(1);
+        mParser.search("other tit", callback);
+        await();
+        assertEquals(Arrays.asList(1), found);
+
+        found.clear();
+        mLatch = new CountDownLatch(1);
+        mParser.search("longer", callback);
+        await();
+        assertEquals(Arrays.asList(1), found);
+
+        mLatch = new CountDownLatch(1);
+        mParser.addSong(new M3UFile(TEST_PATH1, "Caf\u00e9.mp3", "Bj\u00f6rk", "J\u00f3ga", 300000));
+        await();
+        found.clear();
+        mLatch = new CountDownLatch(1);
+        mParser.search("bjork cafe", callback);
+        await();
+        assertEquals(Arrays.asList(3), found);
+
+        mLatch = new CountDownLatch(1);
+        mParser.removeSong(TEST_PATH2, TEST_SONG2);
+        await();
+        found.clear();
+        mLatch = new CountDownLatch(1);
+        mParser.search("author", callback);
+        await();
+        assertEquals(Arrays.asList(0, 1), found);
+
+        found.clear();
+        mLatch = new CountDownLatch(1);
+        mParser.search("nothing", callback);
+        await();
+        assertTrue(found.isEmpty());
+
+        mLatch = new CountDownLatch(1);
+        mParser.unload();
+        await();
+    }
+
+    @Test
+    public void testSort() {
+        mParser = new M3UParser(mAppContext, mCallback);
+        mParser.setChangeCallback(mCallback);
+        mLatch = new CountDownLatch(2);
+        mParser.load(mTestM3U);
+        await();
+        mChanges = new ArrayList<>();
+
+        mLatch = new CountDownLatch(2);
+        mParser.sort(M3UParser.SORT_AUTHOR);
+        await();
+        assertEquals(Arrays.asList(new M3UChange(M3UChange.UPDATED, 0, 3, -1)), mChanges);
+        assertEquals(TEST_SONG3, mSongs.get(0).name);
+        assertEquals(TEST_SONG2, mSongs.get(1).name);
+        assertEquals(TEST_SONG1, mSongs.get(2).name);
+
+        mChanges.clear();
+        mLatch = new CountDownLatch(1);
+        mParser.sort(M3UParser.SORT_SONGLENGTH, true);
+        mParser.listSongs();
+        await();
+        assertTrue(mChanges.isEmpty());
+
+        mLatch = new CountDownLatch(2);
+        mParser.sort(M3UParser.SORT_SONGLENGTH);
+        await();
+        assertEquals(Arrays.asList(new M3UChange(M3UChange.UPDATED, 0, 3, -1)), mChanges);
+        assertEquals(TEST_SONG1, mSongs.get(0).name);
+
+        mChanges.clear();
+        mLatch = new CountDownLatch(2);
+        mParser.move(0, 2);
+        await();
+        assertEquals(Arrays.asList(new M3UChange(M3UChange.MOVED, 0, 1, 2)), mChanges);
+        assertEquals(TEST_SONG2, mSongs.get(0).name);
+        assertEquals(TEST_SONG3, mSongs.get(1).name);
+        assertEquals(TEST_SONG1, mSongs.get(2).name);
+
+        mChanges = null;
+        mLatch = new CountDownLatch(2);
+        mParser.load(mTestM3U);
+        await();
+        assertEquals(3, mSongs.size());
+        assertEquals(TEST_SONG2, mSongs.get(0).name);
+        assertEquals(TEST_SONG1, mSongs.get(2).name);
+        assertEquals(456000, mSongs.get(0).songlength);
+
+        mLatch = new CountDownLatch(1);
+        mParser.unload();
+        await();
+    }
+
+    @Test
+    public void testDuplicates() {
+        final List<int[]> found = new ArrayList<>();
+        IM3UDuplicatesCallback callback = new IM3UDuplicatesCallback() {
+            @Override
+            public void onM3UDuplicates(int[] duplicates, int[] originals, boolean removed) {
+                assertEquals(duplicates.length, originals.length);
+                found.add(duplicates);
+                found.add(originals);
+                mRemoved = removed;
+                mLatch.countDown();
+            }
+        };
+        mParser = new M3UParser(mAppContext, mCallback);
+        mParser.setChangeCallback(mCallback);
+        mLatch = new CountDownLatch(2);
+        mParser.load(mTestM3U);
+        await();
+        mChanges = new ArrayList<>();
+
+        mLatch = new CountDownLatch(2);
+        mParser.addSongs(Arrays.asList(
+                new M3UFile(TEST_PATH1 + "/./", TEST_SONG1),
+                new M3UFile("/PATH/x/../TO", TEST_SONG1.toUpperCase()),
+                new M3UFile("/elsewhere", "copy.adl", "OTHER author", "Other title", 456500)));
+        await();
+        assertEquals(6, mSongs.size());
+
+        found.clear();
+        mLatch = new CountDownLatch(1);
+        mParser.findDuplicates(0, callback);
+        await();
+        assertArrayEquals(new int[] {3}, found.get(0));
+        assertArrayEquals(new int[] {0}, found.get(1));
+        assertFalse(mRemoved);
+
+        found.clear();
+        mLatch = new CountDownLatch(1);
+        mParser.findDuplicates(M3UParser.DEDUP_IGNORE_CASE, callback);
+        await();
+        assertArrayEquals(new int[] {3, 4}, found.get(0));
+        assertArrayEquals(new int[] {0, 0}, found.get(1));
+
+        found.clear();
+        mChanges.clear();
+        mLatch = new CountDownLatch(3);
+        mParser.removeDuplicates(M3UParser.DEDUP_IGNORE_CASE | M3UParser.DEDUP_METADATA, callback);
+        await();
+        assertArrayEquals(new int[] {3, 4, 5}, found.get(0));
+        assertArrayEquals(new int[] {0, 0, 1}, found.get(1));
+        assertTrue(mRemoved);
+        assertEquals(Arrays.asList(new M3UChange(M3UChange.REMOVED, 3, 3, -1)), mChanges);
+        assertEquals(3, mSongs.size());
+
+        found.clear();
+        mLatch = new CountDownLatch(1);
+        mParser.removeDuplicates(M3UParser.DEDUP_IGNORE_CASE | M3UParser.DEDUP_METADATA, callback);
+        await();
+        assertEquals(0, found.get(0).length);
+        assertFalse(mRemoved);
+
+        mChanges = null;
+        mLatch = new CountDownLatch(1);
+        mParser.unload();
+        await();
+    }
+
+    @Test
+    public void testValidate() {
+        final List<Integer> missing = new ArrayList<>();
+        final List<Integer> changed = new ArrayList<>();
+        final List<Integer> unloaded = new ArrayList<>();
+        IM3UValidateCallback callback = new IM3UValidateCallback() {
+            @Override
+            public void onM3UValidate(List<M3UFile> songs, int[] missingIndices, int[] changedIndices, int checked, boolean last) {
+                if (!mLoaded) {
+                    unloaded.add(checked);
+                }
+                for (int index : missingIndices) {
+                    missing.add(index);
+                }
+                for (int index : changedIndices) {
+                    changed.add(index);
+                }
+                if (last) {
+                    assertEquals(songs.size(), checked);
+                    mLatch.countDown();
+                }
+            }
+        };
+        File filesDir = mAppContext.getFilesDir();
+        File song1 = fileFromString(filesDir, TEST_SONG1, "song");
+        File song2 = fileFromString(filesDir, TEST_SONG2, "song");
+        mParser = new M3UParser(mAppContext, mCallback);
+        mParser.setChangeCallback(mCallback);
+        mLatch = new CountDownLatch(2);
+        mParser.load(mEmptyM3U);
+        await();
+
+        mLatch = new CountDownLatch(1);
+        mParser.addSongs(Arrays.asList(
+                new M3UFile(filesDir.getAbsolutePath(), TEST_SONG1),
+                new M3UFile(filesDir.getAbsolutePath(), TEST_SONG3),
+                new M3UFile(new File(filesDir, "missing").getAbsolutePath(), TEST_SONG1),
+                new M3UFile(new File(filesDir, "missing").getAbsolutePath(), TEST_SONG2),
+                new M3UFile(filesDir.getAbsolutePath(), TEST_SONG2)));
+        await();
+
+        mLatch = new CountDownLatch(1);
+        mParser.validate(callback);
+        await();
+        Collections.sort(missing);
+        assertEquals(Arrays.asList(1, 2, 3), missing);
+        assertTrue(changed.isEmpty());
+
+        fileFromString(filesDir, TEST_SONG2, "longer song");
+        assertTrue(song2.setLastModified(song2.lastModified() - 10000));
+        missing.clear();
+        mLatch = new CountDownLatch(1);
+        mParser.validate(callback);
+        await();
+        assertEquals(3, missing.size());
+        assertEquals(Arrays.asList(4), changed);
+
+        // Reports of a validation in progress are dropped once the playlist is unloaded
+        mLatch = new CountDownLatch(1);
+        mParser.validate(callback);
+        mParser.unload();
+        await();
+        try {
+            Thread.sleep(TEST_TIMEOUT / 10);
+        } catch (InterruptedException e) {
+            assertFalse(e.getMessage(), false);
+        }
+        assertTrue(unloaded.isEmpty());
+        song1.delete();
+        song2.delete();
+    }
+
+    @Test
+    public void testWriter() throws IOException {
+        String author = TEST_M3U2.author;
+        String title = TEST_M3U3.title;
+        StringWriter sw = new StringWriter();
+        M3UWriter writer = new M3UWriter(sw);
+        writer.writeHeader();
+        writer.write(TEST_M3U2);
+        writer.write(TEST_M3U3);
+        writer.write(new M3UFile(TEST_PATH3, TEST_SONG3));
+        writer.close();
+        assertSame(author, TEST_M3U2.author);
+        assertSame(title, TEST_M3U3.title);
+        String str =
+                "#EXTM3U" + System.getProperty("line.separator") +
+                System.getProperty("line.separator") +
+                "#EXTINF:456, _ Author with _ hyphens _ -   Other  title  with  spaces  " + System.getProperty("line.separator") +
+                TEST_M3U2.path + File.separator + TEST_M3U2.name + System.getProperty("line.separator") +
+                System.getProperty("line.separator") +
+                "#EXTINF:789,   Other  author  with  spaces   - _ Title with _ hyphens _" + System.getProperty("line.separator") +
+                TEST_M3U3.path + File.separator + TEST_M3U3.name + System.getProperty("line.separator") +
+                System.getProperty("line.separator") +
+                TEST_PATH3 + File.separator + TEST_SONG3 + System.getProperty("line.separator");
+        assertEquals(str, sw.toString());
+
+        List<M3UFile> songs = new ArrayList<>();
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < 1000; i++) {
+            sb.append("\ud83c\udfb5 \u00e5\u00e4\u00f6 ");
+            songs.add(new M3UFile(TEST_PATH1, sb.length() + ".mp3", sb.toString(), "Title " + i, 1000L * i));
+        }
+        ByteArrayOutputStream os = new ByteArrayOutputStream();
+        writer = new M3UWriter(os);
+        StringWriter expected = new StringWriter();
+        M3UWriter expectedWriter = new M3UWriter(expected);
+        for (M3UFile m3u : songs) {
+            writer.write(m3u);
+            expectedWriter.write(m3u);
+        }
+        writer.close();
+        expectedWriter.close();
+        assertArrayEquals(expected.toString().getBytes("UTF-8"), os.toByteArray());
+
+        List<M3UFile> read = new ArrayList<>();
+        M3UReader reader = new M3UReader(ByteBuffer.wrap(os.toByteArray()), Charset.forName("UTF-8"));
+        reader.setExtended(true);
+        reader.read(read, Integer.MAX_VALUE);
+        reader.close();
+        assertEquals(songs, read);
+        assertEquals(songs.get(999).author.trim(), read.get(999).author);
+        assertEquals(999000, read.get(999).songlength);
+    }
 }
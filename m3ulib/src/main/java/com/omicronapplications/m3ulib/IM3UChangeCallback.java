@@ -0,0 +1,7 @@
+package com.omicronapplications.m3ulib;
+
+import java.util.List;
+
+public interface IM3UChangeCallback {
+    void onM3UChanged(List<M3UChange> changes, List<M3UFile> songs);
+}
@@ -0,0 +1,7 @@
+package com.omicronapplications.m3ulib;
+
+import java.util.List;
+
+public interface IM3UChunkCallback {
+    void onM3UChunk(List<M3UFile> songs, int offset, boolean last);
+}
@@ -0,0 +1,5 @@
+package com.omicronapplications.m3ulib;
+
+public interface IM3UDuplicatesCallback {
+    void onM3UDuplicates(int[] duplicates, int[] originals, boolean removed);
+}
@@ -0,0 +1,12 @@
+package com.omicronapplications.m3ulib;
+
+import java.io.File;
+import java.util.List;
+import java.util.Map;
+
+// Unlike IM3UCallback, called on worker threads of M3UManager rather than on the thread of a parser,
+// and for several playlists at the same time
+public interface IM3ULoadCallback {
+    void onM3UFileLoaded(File list, List<M3UFile> songs);
+    void onM3UAllLoaded(Map<File, List<M3UFile>> lists, List<M3UFile> merged);
+}
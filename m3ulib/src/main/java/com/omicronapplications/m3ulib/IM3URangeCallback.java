@@ -0,0 +1,8 @@
+package com.omicronapplications.m3ulib;
+
+import java.io.File;
+import java.util.List;
+
+public interface IM3URangeCallback {
+    void onM3URange(File list, int from, List<M3UFile> songs, int count);
+}
@@ -0,0 +1,5 @@
+package com.omicronapplications.m3ulib;
+
+public interface IM3USearchCallback {
+    void onM3USearch(String query, int[] indices, int offset, boolean last);
+}
@@ -0,0 +1,245 @@
+package com.omicronapplications.m3ulib;
+
+import android.content.Context;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Looper;
+import android.util.Log;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+public class M3UManager {
+    private static final String TAG = "M3UManager";
+    private static final int MAX_THREADS = 4;
+    // Parsers with a thread of their own, not counted in the load of the shared threads
+    private static final int DEDICATED = -1;
+    private final Context mContext;
+    private final HandlerThread[] mThreads;
+    private final int[] mLoad;
+    private final Map<M3UParser, Integer> mParsers;
+    private boolean mQuit;
+    private volatile boolean mCompact;
+
+    public M3UManager(Context context) {
+        this(context, Math.min(MAX_THREADS, Runtime.getRuntime().availableProcessors()));
+    }
+
+    public M3UManager(Context context, int threads) {
+        mContext = context;
+        mThreads = new HandlerThread[Math.max(1, threads)];
+        mLoad = new int[mThreads.length];
+        mParsers = new HashMap<>();
+        mQuit = false;
+        mCompact = false;
+    }
+
+    public synchronized M3UParser open(IM3UCallback callback) {
+        if (mQuit) {
+            Log.e(TAG, "open: manager has quit");
+            return null;
+        }
+        int thread = 0;
+        for (int i = 1; i < mLoad.length; i++) {
+            if (mLoad[i] < mLoad[thread]) {
+                thread = i;
+            }
+        }
+        Looper looper = getLooper(thread);
+        if (looper == null) {
+            return null;
+        }
+        M3UParser parser = new M3UParser(mContext, callback, looper);
+        mParsers.put(parser, thread);
+        mLoad[thread]++;
+        return parser;
+    }
+
+    // Remote playlists are downloaded on a thread of their own, but their local copy is read and reported on the thread of their parser
+    public synchronized M3UParser openRemote(IM3UCallback callback) {
+        if (mQuit) {
+            Log.e(TAG, "openRemote: manager has quit");
+            return null;
+        }
+        M3UParser parser = new M3UParser(mContext, callback);
+        mParsers.put(parser, DEDICATED);
+        return parser;
+    }
+
+    public synchronized void close(M3UParser parser) {
+        Integer thread = mParsers.remove(parser);
+        if (thread != null) {
+            if (thread != DEDICATED) {
+                mLoad[thread]--;
+            }
+            parser.quit();
+        } else {
+            Log.w(TAG, "close: parser not managed");
+        }
+    }
+
+    // Playlists are read on the shared worker threads, which also call the callback
+    public void loadAll(Collection<File> lists, final boolean merge, final IM3ULoadCallback callback) {
+        if (lists == null || lists.isEmpty()) {
+            Log.e(TAG, "loadAll: no playlists");
+            return;
+        }
+        if (isQuit()) {
+            Log.e(TAG, "loadAll: manager has quit");
+            return;
+        }
+        final File[] files = lists.toArray(new File[0]);
+        final AtomicReferenceArray<List<M3UFile>> results = new AtomicReferenceArray<>(files.length);
+        final boolean compact = mCompact;
+        final AtomicInteger remaining = new AtomicInteger(files.length);
+        ExecutorService executor = M3UExecutor.get();
+        for (int i = 0; i < files.length; i++) {
+            final int index = i;
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    // A playlist that fails is reported as not read, and still counts as done
+                    try {
+                        List<M3UFile> songs = readSongs(files[index], compact);
+                        results.set(index, songs);
+                        if (callback != null) {
+                            callback.onM3UFileLoaded(files[index], songs);
+                        }
+                    } catch (RuntimeException e) {
+                        Log.e(TAG, "loadAll: RuntimeException: " + e.getMessage());
+                        results.set(index, null);
+                    } finally {
+                        if (remaining.decrementAndGet() == 0) {
+                            allLoaded(files, results, merge, compact, callback);
+                        }
+                    }
+                }
+            });
+        }
+    }
+
+    private static void allLoaded(File[] files, AtomicReferenceArray<List<M3UFile>> results, boolean merge, boolean compact, IM3ULoadCallback callback) {
+        Map<File, List<M3UFile>> loaded = new LinkedHashMap<>();
+        List<M3UFile> merged = null;
+        M3UPlaylist playlist = merge ? new M3UPlaylist() : null;
+        for (int j = 0; j < files.length; j++) {
+            List<M3UFile> list = results.get(j);
+            loaded.put(files[j], list);
+            if (playlist != null && list != null) {
+                for (M3UFile m3u : list) {
+                    if (!playlist.contains(m3u)) {
+                        playlist.add(m3u);
+                    }
+                }
+            }
+        }
+        if (playlist != null) {
+            merged = compact ? new M3UCompactList(playlist) : playlist;
+        }
+        if (callback != null) {
+            callback.onM3UAllLoaded(loaded, merged);
+        }
+    }
+
+    private static List<M3UFile> readSongs(File list, boolean compact) {
+        List<M3UFile> songs = null;
+        M3UReader reader = null;
+        try {
+            reader = new M3UReader(list);
+            songs = compact ? new M3UCompactList() : new M3UPlaylist();
+            M3UFile m3u = reader.next();
+            while (m3u != null) {
+                songs.add(m3u);
+                m3u = reader.next();
+            }
+            if (compact) {
+                ((M3UCompactList) songs).trimToSize();
+            }
+        } catch (IOException e) {
+            Log.e(TAG, "readSongs: IOException: " + e.getMessage());
+            songs = null;
+        } finally {
+            if (reader != null) {
+                try {
+                    reader.close();
+                } catch (IOException e) {
+                    Log.w(TAG, "readSongs: IOException: " + e.getMessage());
+                }
+            }
+        }
+        return songs;
+    }
+
+    // Playlists loaded by loadAll() are kept as M3UCompactList, trading access time for memory
+    public void setCompact(boolean compact) {
+        mCompact = compact;
+    }
+
+    public boolean isCompact() {
+        return mCompact;
+    }
+
+    public synchronized List<M3UParser> getParsers() {
+        return new ArrayList<>(mParsers.keySet());
+    }
+
+    public synchronized int getThreadCount() {
+        int count = 0;
+        for (HandlerThread thread : mThreads) {
+            if (thread != null) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    // Parsers write pending changes before their threads finish the messages already queued
+    public synchronized void quit() {
+        for (M3UParser parser : mParsers.keySet()) {
+            parser.quit();
+        }
+        mParsers.clear();
+        for (int i = 0; i < mThreads.length; i++) {
+            final HandlerThread thread = mThreads[i];
+            if (thread != null) {
+                Handler handler = new Handler(thread.getLooper());
+                handler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        thread.quit();
+                    }
+                });
+                mThreads[i] = null;
+            }
+            mLoad[i] = 0;
+        }
+        mQuit = true;
+    }
+
+    public synchronized boolean isQuit() {
+        return mQuit;
+    }
+
+    private Looper getLooper(int thread) {
+        if (mThreads[thread] == null) {
+            HandlerThread handlerThread = new HandlerThread(TAG + "-" + thread);
+            try {
+                handlerThread.start();
+            } catch (IllegalThreadStateException e) {
+                Log.e(TAG, "getLooper: IllegalThreadStateException: " + e.getMessage());
+                return null;
+            }
+            mThreads[thread] = handlerThread;
+        }
+        return mThreads[thread].getLooper();
+    }
+}
@@ -9,35 +9,57 @@ import android.os.Looper;
 import android.os.Message;
 import android.util.Log;
 
-import java.io.BufferedReader;
-import java.io.BufferedWriter;
+import java.io.Closeable;
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.InputStreamReader;
-import java.io.OutputStreamWriter;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
 import java.io.StringWriter;
-import java.io.Writer;
+import java.net.URI;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
 import java.util.List;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
 
 public class M3UParser {
     public static final int STORAGE_ILLEGAL = -1;
     public static final int STORAGE_INTERNAL = 0;
     public static final int STORAGE_EXTERNAL = 1;
+    public static final int SORT_PATH = M3USorter.PATH;
+    public static final int SORT_AUTHOR = M3USorter.AUTHOR;
+    public static final int SORT_TITLE = M3USorter.TITLE;
+    public static final int SORT_SONGLENGTH = M3USorter.SONGLENGTH;
+    public static final int DEDUP_IGNORE_CASE = M3UDuplicates.IGNORE_CASE;
+    public static final int DEDUP_METADATA = M3UDuplicates.METADATA;
     private static final String TAG = "M3UParser";
-    private static final String EXTM3U = "#EXTM3U";
-    private static final String EXTINF = "#EXTINF";
     private static final int M3U_LOAD = 1;
     private static final int M3U_UNLOAD = 2;
     private static final int M3U_ADD = 3;
     private static final int M3U_REMOVE = 4;
     private static final int M3U_LIST = 5;
     private static final int M3U_DUMP = 6;
+    private static final int M3U_STREAM = 7;
+    private static final int M3U_ADD_LIST = 8;
+    private static final int M3U_REMOVE_LIST = 9;
+    private static final int M3U_BEGIN = 10;
+    private static final int M3U_COMMIT = 11;
+    private static final int M3U_FLUSH = 12;
+    private static final int M3U_WRITE_BEHIND = 13;
+    private static final int M3U_QUIT = 14;
+    private static final int M3U_RANGE = 15;
+    private static final int M3U_SEARCH = 16;
+    private static final int M3U_SORT = 17;
+    private static final int M3U_MOVE = 18;
+    private static final int M3U_DEDUP = 19;
+    private static final int M3U_VALIDATE = 20;
+    private static final int M3U_VALIDATED = 21;
+    private static final int M3U_FETCHED = 22;
+    private static final int CHUNK_SIZE = 1000;
     private static final String BUNDLE_EXTENDED = "extended";
     private static final String BUNDLE_PATH = "path";
     private static final String BUNDLE_NAME = "name";
@@ -46,12 +68,29 @@ public class M3UParser {
     private static final String BUNDLE_SONGLENGTH = "songlength";
     private static final String BUNDLE_LIST = "list";
     private static final String BUNDLE_STORAGE = "storage";
+    private static final String BUNDLE_CHUNK = "chunk";
+    private static final String BUNDLE_FROM = "from";
+    private static final String BUNDLE_TO = "to";
+    private static final String BUNDLE_QUERY = "query";
+    private static final String BUNDLE_ORDER = "order";
+    private static final String BUNDLE_DESCENDING = "descending";
+    private static final String BUNDLE_OPTIONS = "options";
+    private static final String BUNDLE_REMOVE = "remove";
     private final Context mContext;
     private HandlerThread mM3UThread;
     private Handler mM3UHandler;
     private M3UHandlerCallback mM3UHandlerCallback;
     private IM3UCallback mCallback;
+    private volatile IM3UChunkCallback mChunkCallback;
+    private volatile IM3UChangeCallback mChangeCallback;
     private volatile boolean mLoaded;
+    private volatile boolean mDirty;
+    private volatile long mWriteDelay;
+    private volatile boolean mQuit;
+    private volatile boolean mCacheEnabled;
+    private volatile boolean mLazyEnabled;
+    private volatile M3UValidator.Job mValidation;
+    private final AtomicReference<LoadRequest> mLastLoad = new AtomicReference<>();
 
     public M3UParser(Context context, IM3UCallback callback) {
         mContext = context;
@@ -67,25 +106,86 @@ public class M3UParser {
         mM3UHandler = new Handler(looper, mM3UHandlerCallback);
     }
 
+    public M3UParser(Context context, IM3UCallback callback, Looper looper) {
+        mContext = context;
+        mCallback = callback;
+        mM3UThread = null;
+        mM3UHandlerCallback = new M3UHandlerCallback();
+        mM3UHandler = new Handler(looper, mM3UHandlerCallback);
+    }
+
     private final class M3UHandlerCallback implements Handler.Callback {
         private int mStorage;
         private File mList;
-        private List<M3UFile> mSongs;
+        // Resolves the songs of the loaded playlist, against its URL for a remote one
+        private M3UResolver mResolver;
+        private M3UPlaylist mSongs;
+        private int mBatch;
+        private boolean mAppendable;
+        private int mWritten;
+        private long mListLength;
+        private long mListModified;
+        private M3UIndex mIndex;
+        private M3USearch mSearch;
+        private M3USorter mSorter;
+        private M3UValidator mValidator;
+        // Requests wait while a playlist is fetched, and are handled in order once it is loaded
+        private Fetch mFetch;
+        private List<Message> mDeferred;
 
         public M3UHandlerCallback() {
             mStorage = STORAGE_ILLEGAL;
             mList = null;
+            mResolver = null;
             mSongs = null;
+            mBatch = 0;
+            mAppendable = false;
+            mWritten = 0;
+            mListLength = 0;
+            mListModified = 0;
+            mIndex = null;
+            mSearch = null;
+            mSorter = null;
+            mValidator = null;
+            mFetch = null;
+            mDeferred = new ArrayList<>();
         }
 
         @Override
+        @SuppressWarnings("unchecked")
         public boolean handleMessage(Message msg) {
+            if (mFetch != null && isDeferred(msg.what)) {
+                defer(msg);
+                return true;
+            }
             switch (msg.what) {
                 case M3U_LOAD:
+                    LoadRequest load = (LoadRequest) msg.obj;
+                    if (!load.take()) {
+                        // Replaced by a newer load, which closed its stream
+                        break;
+                    }
+                    if (mDirty) {
+                        mM3UHandler.removeMessages(M3U_WRITE_BEHIND);
+                        writeSongs();
+                        writeCache();
+                    }
                     Bundle data = msg.getData();
                     String list = data.getString(BUNDLE_LIST);
                     mList = new File(list);
+                    mResolver = (load.source instanceof URI) ? new M3UResolver((URI) load.source) : new M3UResolver(mList);
                     mStorage = data.getInt(BUNDLE_STORAGE);
+                    stopValidation();
+                    mBatch = 0;
+                    mIndex = null;
+                    mAppendable = false;
+                    mDirty = false;
+                    if (load.source != null) {
+                        // Loaded once the fetch reports its last chunk
+                        mLoaded = false;
+                        startFetch(load.source);
+                        break;
+                    }
                     if (!mList.exists()) {
                         try {
                             mList.createNewFile();
@@ -101,9 +201,21 @@ public class M3UParser {
                     break;
 
                 case M3U_UNLOAD:
-                    writeSongs();
+                    mM3UHandler.removeMessages(M3U_WRITE_BEHIND);
+                    if (mDirty) {
+                        writeSongs();
+                        writeCache();
+                    }
                     mList = null;
+                    mResolver = null;
                     mSongs = null;
+                    mSearch = null;
+                    mSorter = null;
+                    stopValidation();
+                    mBatch = 0;
+                    mIndex = null;
+                    mAppendable = false;
+                    mDirty = false;
                     mLoaded = false;
                     if (mCallback != null) {
                         mCallback.onM3ULoaded(mLoaded);
@@ -124,9 +236,30 @@ public class M3UParser {
                     } else {
                         m3u = new M3UFile(path, name);
                     }
-                    if (mSongs != null && !mSongs.contains(m3u)) {
-                        mSongs.add(m3u);
-                        writeSongs();
+                    // Attribute entries are never changed once read, so the song can share them
+                    M3UFile added = (M3UFile) msg.obj;
+                    m3u.attributes = added.attributes;
+                    m3u.attributeEntry = added.attributeEntry;
+                    m3u.resolver = mResolver;
+                    if (mSongs != null && addSong(m3u)) {
+                        songsModified();
+                    }
+                    break;
+
+                case M3U_ADD_LIST:
+                    List<M3UFile> songs = (List<M3UFile>) msg.obj;
+                    boolean modified = false;
+                    if (mSongs != null) {
+                        for (M3UFile song : songs) {
+                            // Copies of songs from other playlists are resolved against this one, where they are written
+                            song.resolver = mResolver;
+                            if (addSong(song)) {
+                                modified = true;
+                            }
+                        }
+                    }
+                    if (modified) {
+                        songsModified();
                     }
                     break;
 
@@ -135,22 +268,132 @@ public class M3UParser {
                     path = data.getString(BUNDLE_PATH);
                     name = data.getString(BUNDLE_NAME);
                     m3u = new M3UFile(path, name);
-                    if (mSongs != null && mSongs.contains(m3u)) {
-                        mSongs.remove(m3u);
+                    if (mSongs != null && mSongs.remove(m3u)) {
+                        if (mSearch != null) {
+                            mSearch.remove(m3u, false);
+                        }
+                        mAppendable = false;
+                        songsModified();
+                    }
+                    break;
+
+                case M3U_REMOVE_LIST:
+                    songs = (List<M3UFile>) msg.obj;
+                    if (mSongs != null && mSongs.removeAll(songs)) {
+                        if (mSearch != null) {
+                            for (M3UFile song : songs) {
+                                mSearch.remove(song, true);
+                            }
+                        }
+                        mAppendable = false;
+                        songsModified();
+                    }
+                    break;
+
+                case M3U_SORT:
+                    data = msg.getData();
+                    sortSongs(data.getInt(BUNDLE_ORDER), data.getBoolean(BUNDLE_DESCENDING));
+                    break;
+
+                case M3U_MOVE:
+                    data = msg.getData();
+                    int from = data.getInt(BUNDLE_FROM);
+                    int to = data.getInt(BUNDLE_TO);
+                    if (mSongs == null) {
+                        Log.w(TAG, "handleMessage: no playlist loaded");
+                    } else if (from >= mSongs.size() || to >= mSongs.size()) {
+                        Log.w(TAG, "handleMessage: illegal move " + from + " -> " + to);
+                    } else if (from != to) {
+                        mSongs.move(from, to);
+                        mAppendable = false;
+                        songsModified();
+                    }
+                    break;
+
+                case M3U_DEDUP:
+                    data = msg.getData();
+                    dedupSongs(data.getInt(BUNDLE_OPTIONS), data.getBoolean(BUNDLE_REMOVE), (IM3UDuplicatesCallback) msg.obj);
+                    break;
+
+                case M3U_VALIDATE:
+                    validateSongs((IM3UValidateCallback) msg.obj);
+                    break;
+
+                case M3U_VALIDATED:
+                    ValidateReport report = (ValidateReport) msg.obj;
+                    M3UValidator.Job job = report.job;
+                    if (!job.isCancelled()) {
+                        job.checked += report.count;
+                        if (report.last && mValidation == job) {
+                            mValidation = null;
+                        }
+                        if (job.callback != null) {
+                            job.callback.onM3UValidate(job.songs, report.missing, report.changed, job.checked, report.last);
+                        }
+                    }
+                    break;
+
+                case M3U_FETCHED:
+                    fetched((FetchReport) msg.obj);
+                    break;
+
+                case M3U_BEGIN:
+                    mBatch++;
+                    break;
+
+                case M3U_COMMIT:
+                    if (mBatch > 0) {
+                        mBatch--;
+                    } else {
+                        Log.w(TAG, "handleMessage: commit without begin");
+                    }
+                    if (mBatch == 0) {
+                        notifyChanges();
+                    }
+                    if (mBatch == 0 && mDirty) {
+                        mM3UHandler.removeMessages(M3U_WRITE_BEHIND);
+                        writeSongs();
+                    }
+                    break;
+
+                case M3U_FLUSH:
+                case M3U_WRITE_BEHIND:
+                    mM3UHandler.removeMessages(M3U_WRITE_BEHIND);
+                    if (mDirty) {
                         writeSongs();
                     }
                     break;
 
                 case M3U_LIST:
                     if (mCallback != null) {
-                        mCallback.onM3UList(mSongs);
+                        mCallback.onM3UList(mSongs != null ? mSongs.snapshot() : null);
+                    }
+                    break;
+
+                case M3U_STREAM:
+                    data = msg.getData();
+                    list = data.getString(BUNDLE_LIST);
+                    int chunkSize = data.getInt(BUNDLE_CHUNK);
+                    if (!streamSongs(new File(list), chunkSize, null, null)) {
+                        Log.w(TAG, "handleMessage: stream failed: " + list);
                     }
                     break;
 
+                case M3U_RANGE:
+                    data = msg.getData();
+                    list = data.getString(BUNDLE_LIST);
+                    readRange(new File(list), data.getInt(BUNDLE_STORAGE), data.getInt(BUNDLE_FROM), data.getInt(BUNDLE_TO), (IM3URangeCallback) msg.obj);
+                    break;
+
+                case M3U_SEARCH:
+                    data = msg.getData();
+                    search(data.getString(BUNDLE_QUERY), (IM3USearchCallback) msg.obj);
+                    break;
+
                 case M3U_DUMP:
                     String str = null;
                     StringWriter sw = new StringWriter();
-                    if (writeM3U(sw)) {
+                    if (writeM3U(new M3UWriter(sw))) {
                         str = sw.toString();
                     }
                     if (mCallback != null) {
@@ -158,6 +401,17 @@ public class M3UParser {
                     }
                     break;
 
+                case M3U_QUIT:
+                    mM3UHandler.removeMessages(M3U_WRITE_BEHIND);
+                    if (mDirty) {
+                        writeSongs();
+                        writeCache();
+                    }
+                    if (mM3UThread != null) {
+                        mM3UThread.quit();
+                    }
+                    break;
+
                 default:
                     Log.w(TAG, "handleMessage: ignored illegal request: " + msg.what);
                     break;
@@ -165,58 +419,464 @@ public class M3UParser {
             return true;
         }
 
+        // Adds a new song, or updates the metadata of a song already in the playlist
+        private boolean addSong(M3UFile m3u) {
+            int index = mSongs.indexOf(m3u);
+            if (index == -1) {
+                mSongs.add(m3u);
+                if (mSearch != null) {
+                    mSearch.add(m3u);
+                }
+                return true;
+            }
+            M3UFile old = mSongs.get(index);
+            if (!m3u.extended || (old.extended && old.songlength == m3u.songlength &&
+                    equals(old.author, m3u.author) && equals(old.title, m3u.title))) {
+                return false;
+            }
+            mSongs.set(index, m3u);
+            if (mSearch != null) {
+                mSearch.remove(old, false);
+                mSearch.add(m3u);
+            }
+            mAppendable = false;
+            return true;
+        }
+
+        // Matches are delivered in playlist order while the playlist is scanned, a newer search stops an older one
+        private void search(String query, IM3USearchCallback callback) {
+            if (callback == null) {
+                return;
+            }
+            M3USearch.Matches matches = null;
+            if (mSongs == null) {
+                Log.w(TAG, "search: no playlist loaded");
+            } else {
+                if (mSearch == null) {
+                    mSearch = new M3USearch(mSongs);
+                }
+                matches = mSearch.find(query);
+            }
+            int[] chunk = new int[CHUNK_SIZE];
+            int count = 0;
+            int offset = 0;
+            if (matches != null && !matches.isEmpty()) {
+                int size = mSongs.size();
+                for (int from = 0; from < size; from += CHUNK_SIZE) {
+                    if (mM3UHandler.hasMessages(M3U_SEARCH)) {
+                        return;
+                    }
+                    for (int index : matches.positions(mSongs, from, Math.min(size, from + CHUNK_SIZE))) {
+                        chunk[count++] = index;
+                        if (count == CHUNK_SIZE) {
+                            callback.onM3USearch(query, chunk, offset, false);
+                            offset += count;
+                            chunk = new int[CHUNK_SIZE];
+                            count = 0;
+                        }
+                    }
+                }
+            }
+            if (!mM3UHandler.hasMessages(M3U_SEARCH)) {
+                callback.onM3USearch(query, Arrays.copyOf(chunk, count), offset, true);
+            }
+        }
+
+        // The whole new order is written at once
+        private void sortSongs(int order, boolean descending) {
+            if (mSongs == null) {
+                Log.w(TAG, "sortSongs: no playlist loaded");
+                return;
+            }
+            if (mSorter == null) {
+                mSorter = new M3USorter();
+            }
+            M3UFile[] sorted = mSorter.sort(mSongs, order, descending);
+            if (sorted == null) {
+                Log.w(TAG, "sortSongs: illegal order " + order);
+            } else if (mSongs.reorder(sorted)) {
+                mAppendable = false;
+                songsModified();
+            }
+        }
+
+        // Duplicates are reported at their positions before removal, and removed with a single write
+        private void dedupSongs(int options, boolean remove, IM3UDuplicatesCallback callback) {
+            int[] duplicates = new int[0];
+            int[] originals = new int[0];
+            boolean removed = false;
+            if (mSongs == null) {
+                Log.w(TAG, "dedupSongs: no playlist loaded");
+            } else {
+                int[] found = M3UDuplicates.find(mSongs, options);
+                if (found == null) {
+                    Log.w(TAG, "dedupSongs: interrupted");
+                } else {
+                    BitSet positions = new BitSet(found.length);
+                    for (int i = 0; i < found.length; i++) {
+                        if (found[i] != -1) {
+                            positions.set(i);
+                        }
+                    }
+                    duplicates = new int[positions.cardinality()];
+                    originals = new int[duplicates.length];
+                    int count = 0;
+                    for (int i = positions.nextSetBit(0); i >= 0; i = positions.nextSetBit(i + 1)) {
+                        duplicates[count] = i;
+                        originals[count] = found[i];
+                        count++;
+                    }
+                    if (remove && count > 0) {
+                        if (mSearch != null) {
+                            for (int index : duplicates) {
+                                mSearch.remove(mSongs.get(index), false);
+                            }
+                        }
+                        mSongs.removeAt(positions);
+                        mAppendable = false;
+                        removed = true;
+                        songsModified();
+                    }
+                }
+            }
+            if (callback != null) {
+                callback.onM3UDuplicates(duplicates, originals, removed);
+            }
+        }
+
+        // Files are checked on worker threads against a snapshot, reports come back through the handler
+        private void validateSongs(IM3UValidateCallback callback) {
+            stopValidation();
+            if (mSongs == null) {
+                Log.w(TAG, "validateSongs: no playlist loaded");
+                return;
+            }
+            if (mValidator == null) {
+                mValidator = new M3UValidator();
+            }
+            mValidation = mValidator.start(mSongs.snapshot(), callback, mValidated);
+        }
+
+        // Reports of a cancelled job still queued on the handler are dropped
+        private void stopValidation() {
+            M3UValidator.Job job = mValidation;
+            if (job != null) {
+                job.cancel();
+            }
+            mValidation = null;
+        }
+
+        private final M3UValidator.Listener mValidated = new M3UValidator.Listener() {
+            @Override
+            public void onValidated(M3UValidator.Job job, int[] missing, int[] changed, int count, boolean last) {
+                Message msg = mM3UHandler.obtainMessage(M3U_VALIDATED, new ValidateReport(job, missing, changed, count, last));
+                mM3UHandler.sendMessage(msg);
+            }
+        };
+
+        private boolean equals(String str1, String str2) {
+            return (str1 == str2) || (str1 != null && str1.equals(str2));
+        }
+
+        private void notifyChanges() {
+            if (mSongs == null) {
+                return;
+            }
+            List<M3UChange> changes = mSongs.takeChanges();
+            if (changes.isEmpty()) {
+                return;
+            }
+            IM3UChangeCallback changeCallback = mChangeCallback;
+            if (changeCallback != null) {
+                changeCallback.onM3UChanged(changes, mSongs.snapshot());
+            } else if (mCallback != null) {
+                mCallback.onM3UList(mSongs.snapshot());
+            }
+        }
+
+        private void songsModified() {
+            mDirty = true;
+            if (mBatch > 0) {
+                return;
+            }
+            notifyChanges();
+            long delay = mWriteDelay;
+            if (delay > 0) {
+                mM3UHandler.removeMessages(M3U_WRITE_BEHIND);
+                mM3UHandler.sendEmptyMessageDelayed(M3U_WRITE_BEHIND, delay);
+            } else {
+                writeSongs();
+            }
+        }
+
         private void readSongs() {
             boolean readSuccessful = false;
-            mSongs = new ArrayList<>();
+            mSongs = new M3UPlaylist();
+            mSearch = null;
             if (mList == null) {
                 Log.e(TAG, "readSongs: no playlist loaded");
             } else {
+                mListLength = mList.length();
+                mListModified = mList.lastModified();
+                if (isCached()) {
+                    readSuccessful = readCache();
+                } else {
+                    readSuccessful = streamSongs(mList, CHUNK_SIZE, mSongs, mResolver);
+                }
+            }
+            songsRead(readSuccessful);
+        }
+
+        // Songs are parsed on a thread of their own while the stream is copied to the playlist file
+        private void startFetch(Object source) {
+            mSongs = new M3UPlaylist();
+            mSearch = null;
+            mFetch = new Fetch(source, mList, mResolver);
+            Thread thread = new Thread(mFetch, "M3UFetch");
+            thread.start();
+        }
+
+        // Without a new copy, the file is read as it is, after songs of a failed stream have been reported in chunks too
+        private void fetched(FetchReport report) {
+            Fetch fetch = report.fetch;
+            if (fetch != mFetch) {
+                return;
+            }
+            IM3UChunkCallback chunkCallback = mChunkCallback;
+            int offset = mSongs.size();
+            if (!report.last) {
+                mSongs.addAll(report.songs);
+                if (chunkCallback != null) {
+                    chunkCallback.onM3UChunk(M3UList.of(report.songs), offset, false);
+                }
+                return;
+            }
+            if (chunkCallback != null) {
+                chunkCallback.onM3UChunk(M3UList.of(report.songs), offset, true);
+            }
+            mFetch = null;
+            if (fetch.isDownloaded()) {
+                mAppendable = fetch.isAppendable();
+                mListLength = mList.length();
+                mListModified = mList.lastModified();
+                songsRead(true);
+                writeCache();
+            } else if (mList.exists()) {
+                readSongs();
+            } else {
+                // Unreachable without a local copy
+                Log.w(TAG, "fetched: not loaded: " + mList.getAbsolutePath());
+                mList = null;
+                mResolver = null;
+                mSongs = null;
+                mSearch = null;
+            }
+            mLoaded = (mList != null && mList.exists());
+            if (mCallback != null) {
+                mCallback.onM3ULoaded(mLoaded);
+            }
+            List<Message> deferred = mDeferred;
+            mDeferred = new ArrayList<>();
+            for (Message msg : deferred) {
+                // A deferred load fetching another playlist defers the rest again
+                handleMessage(msg);
+            }
+        }
+
+        // A request that replaces earlier ones replaces them among the deferred requests too
+        private void defer(Message msg) {
+            if (!isQueued(msg.what)) {
+                for (int i = mDeferred.size() - 1; i >= 0; i--) {
+                    if (mDeferred.get(i).what == msg.what) {
+                        mDeferred.remove(i);
+                    }
+                }
+            }
+            mDeferred.add(Message.obtain(msg));
+        }
+
+        private void songsRead(boolean readSuccessful) {
+            mSongs.setRecording(true);
+            if (!readSuccessful) {
+                Log.w(TAG, "songsRead: read failed");
+                mAppendable = false;
+            } else {
+                mWritten = mSongs.size();
+                if (mCallback != null) {
+                    mCallback.onM3UList(mSongs.snapshot());
+                }
+            }
+        }
+
+        // Remote playlists are always cached, so that an unchanged one is not parsed again
+        private boolean isCached() {
+            return mCacheEnabled || (mResolver != null && mResolver.isRemote());
+        }
+
+        private M3UCache getCache() {
+            M3UCache cache = null;
+            if (isCached() && mList != null) {
+                File dir = getStorage();
+                if (dir != null) {
+                    cache = new M3UCache(M3UCache.getCacheFile(dir, mList));
+                }
+            }
+            return cache;
+        }
+
+        private boolean readCache() {
+            M3UCache cache = getCache();
+            List<M3UFile> songs = null;
+            if (cache != null) {
                 try {
-                    FileInputStream fs = new FileInputStream(mList);
-                    InputStreamReader sr = new InputStreamReader(fs);
-                    BufferedReader br = new BufferedReader(sr);
-                    String str = br.readLine();
-                    boolean extended = false;
-                    while (str != null) {
-                        if (str.startsWith(EXTM3U)) {
-                            extended = true;
-                        } else if (extended && str.startsWith(EXTINF)) {
-                            String regex = "^#EXTINF\\s*:\\s*(\\d+)\\s*,\\s*([^-]+)\\s*-\\s*(.*)";
-                            Pattern p = Pattern.compile(regex);
-                            Matcher m = p.matcher(str);
-                            String song = br.readLine();
-                            if (m.find() && song != null && !song.isEmpty() && !song.startsWith("#")) {
-                                str = m.group(1);
-                                long songlength = 1000 * Long.parseLong(str != null ? str : "0");
-                                str = m.group(2);
-                                String author = str != null ? str.trim() : "";
-                                str = m.group(3);
-                                String title = str != null ? str.trim() : "";
-                                M3UFile m3u = new M3UFile(song, author, title, songlength);
-                                mSongs.add(m3u);
-                            }
-                        } else if (!str.isEmpty() && !str.startsWith("#")) {
-                            M3UFile m3u = new M3UFile(str.trim());
-                            mSongs.add(m3u);
-                        }
-                        str = br.readLine();
-                    }
-                    readSuccessful = true;
-                    br.close();
-                    sr.close();
-                    fs.close();
-                } catch (NullPointerException e) {
-                    Log.e(TAG, "readSongs: NullPointerException: " + e.getMessage());
-                } catch (FileNotFoundException e) {
-                    Log.e(TAG, "readSongs: FileNotFoundException: " + e.getMessage());
+                    songs = cache.read(mList, mResolver);
                 } catch (IOException e) {
-                    Log.e(TAG, "readSongs: IOException: " + e.getMessage());
+                    Log.w(TAG, "readCache: IOException: " + e.getMessage());
+                    cache.delete();
                 }
             }
-            if (!readSuccessful) {
-                Log.w(TAG, "readSongs: read failed");
-            } else if (mCallback != null) {
-                mCallback.onM3UList(mSongs);
+            if (songs == null) {
+                boolean readSuccessful = streamSongs(mList, CHUNK_SIZE, mSongs, mResolver);
+                if (readSuccessful) {
+                    writeCache();
+                }
+                return readSuccessful;
+            }
+            IM3UChunkCallback chunkCallback = mChunkCallback;
+            int size = songs.size();
+            for (int offset = 0; offset < size; offset += CHUNK_SIZE) {
+                List<M3UFile> chunk = new ArrayList<>(songs.subList(offset, Math.min(size, offset + CHUNK_SIZE)));
+                mSongs.addAll(chunk);
+                if (chunkCallback != null) {
+                    chunkCallback.onM3UChunk(M3UList.of(chunk), offset, false);
+                }
+            }
+            if (chunkCallback != null) {
+                chunkCallback.onM3UChunk(M3UList.of(new ArrayList<M3UFile>()), size, true);
+            }
+            mAppendable = cache.isAppendable();
+            return true;
+        }
+
+        private void readRange(File list, int storage, int from, int to, IM3URangeCallback callback) {
+            List<M3UFile> songs = null;
+            int count = 0;
+            try {
+                M3UIndex index = getIndex(list, storage);
+                if (index != null) {
+                    count = index.getCount();
+                    songs = index.read(from, to);
+                } else {
+                    Log.w(TAG, "readRange: playlist cannot be indexed: " + list.getAbsolutePath());
+                }
+            } catch (IOException e) {
+                Log.e(TAG, "readRange: IOException: " + e.getMessage());
+                mIndex = null;
+            }
+            if (callback != null) {
+                callback.onM3URange(list, from, songs, count);
+            }
+        }
+
+        // Last index used, then the one kept in the cache directory, then a new one
+        private M3UIndex getIndex(File list, int storage) throws IOException {
+            if (mIndex != null && mIndex.getList().equals(list) && mIndex.isValid()) {
+                return mIndex;
+            }
+            mIndex = null;
+            File indexFile = null;
+            if (mCacheEnabled && storage != STORAGE_ILLEGAL) {
+                File dir = getStorage(storage);
+                if (dir != null) {
+                    indexFile = M3UIndex.getIndexFile(dir, list);
+                }
+            }
+            M3UIndex index = null;
+            if (indexFile != null) {
+                try {
+                    index = M3UIndex.read(indexFile, list);
+                } catch (IOException e) {
+                    Log.w(TAG, "getIndex: IOException: " + e.getMessage());
+                    indexFile.delete();
+                }
+            }
+            if (index == null) {
+                index = M3UIndex.build(list);
+                if (index != null && indexFile != null) {
+                    try {
+                        index.write(indexFile);
+                    } catch (IOException e) {
+                        Log.w(TAG, "getIndex: IOException: " + e.getMessage());
+                        indexFile.delete();
+                    }
+                }
+            }
+            mIndex = index;
+            return index;
+        }
+
+        private void writeCache() {
+            M3UCache cache = getCache();
+            if (cache != null && mSongs != null) {
+                try {
+                    cache.write(mList, mListLength, mListModified, mSongs, mAppendable);
+                } catch (IOException e) {
+                    Log.w(TAG, "writeCache: IOException: " + e.getMessage());
+                    cache.delete();
+                }
+            }
+        }
+
+        // Without a resolver, songs are resolved against the playlist file
+        private boolean streamSongs(File list, int chunkSize, List<M3UFile> songs, M3UResolver resolver) {
+            boolean readSuccessful = false;
+            M3UReader reader = null;
+            try {
+                reader = new M3UReader(list, mLazyEnabled);
+                if (resolver != null) {
+                    reader.setResolver(resolver);
+                }
+                readChunks(reader, chunkSize, songs);
+                readSuccessful = true;
+            } catch (FileNotFoundException e) {
+                Log.e(TAG, "streamSongs: FileNotFoundException: " + e.getMessage());
+            } catch (IOException e) {
+                Log.e(TAG, "streamSongs: IOException: " + e.getMessage());
+            } finally {
+                if (reader != null) {
+                    try {
+                        reader.close();
+                    } catch (IOException e) {
+                        Log.w(TAG, "streamSongs: IOException: " + e.getMessage());
+                    }
+                }
+            }
+            return readSuccessful;
+        }
+
+        private void readChunks(M3UReader reader, int chunkSize, List<M3UFile> songs) throws IOException {
+            IM3UChunkCallback chunkCallback = mChunkCallback;
+            int offset = 0;
+            List<M3UFile> chunk = new ArrayList<>(chunkSize);
+            // Streaming another file leaves the loaded playlist as it is
+            if (songs != null) {
+                mAppendable = false;
+            }
+            while (reader.read(chunk, chunkSize) > 0) {
+                if (songs != null) {
+                    songs.addAll(chunk);
+                }
+                if (chunkCallback != null) {
+                    chunkCallback.onM3UChunk(M3UList.of(chunk), offset, false);
+                }
+                offset += chunk.size();
+                chunk = new ArrayList<>(chunkSize);
+            }
+            if (songs != null) {
+                mAppendable = reader.isExtended() && M3UDecoder.UTF_8.equals(reader.getCharset());
+            }
+            if (chunkCallback != null) {
+                chunkCallback.onM3UChunk(M3UList.of(chunk), offset, true);
             }
         }
 
@@ -226,67 +886,137 @@ public class M3UParser {
                 Log.e(TAG, "writeSongs: no playlist loaded");
             } else if (mSongs == null) {
                 Log.e(TAG, "writeSongs: no song array");
+            } else if (isAppendable()) {
+                writeSuccessful = appendSongs() || replaceSongs();
             } else {
-                try {
-                    File dir = getStorage();
-                    if (dir == null) {
-                        Log.e(TAG, "writeSongs: invalid storage " + dir);
-                        return;
+                writeSuccessful = replaceSongs();
+            }
+            if (!writeSuccessful) {
+                Log.w(TAG, "writeSongs: write failed");
+            } else {
+                mDirty = false;
+                mWritten = mSongs.size();
+                mAppendable = true;
+                mListLength = mList.length();
+                mListModified = mList.lastModified();
+                if (mCallback != null) {
+                    mCallback.onM3UWrite(mList);
+                }
+            }
+        }
+
+        private boolean replaceSongs() {
+            boolean replaced = false;
+            try {
+                File dir = getStorage();
+                if (dir == null) {
+                    Log.e(TAG, "replaceSongs: invalid storage " + dir);
+                    return false;
+                }
+                File tempList = File.createTempFile("m3u", "tmp", dir);
+                boolean written = false;
+                try (FileOutputStream os = new FileOutputStream(tempList)) {
+                    M3UWriter writer = new M3UWriter(os);
+                    boolean complete = writeM3U(writer);
+                    if (complete) {
+                        os.getFD().sync();
                     }
-                    File tempList = File.createTempFile("m3u", "tmp", dir);
-                    FileOutputStream os = new FileOutputStream(tempList);
-                    OutputStreamWriter sw = new OutputStreamWriter(os);
-                    BufferedWriter bw = new BufferedWriter(sw);
-                    writeM3U(bw);
-                    bw.close();
-                    sw.close();
-                    os.close();
-                    if (!mList.delete()) {
-                        Log.w(TAG, "writeSongs: delete failed: " + mList.getAbsolutePath());
-                    }
-                    if (!tempList.renameTo(mList)) {
-                        Log.e(TAG, "writeSongs: rename failed: " + tempList.getAbsolutePath() + " -> " + mList.getAbsolutePath());
-                    } else {
-                        writeSuccessful = true;
+                    writer.close();
+                    written = complete;
+                } finally {
+                    // Also when writing or syncing failed
+                    if (!written && !tempList.delete()) {
+                        Log.w(TAG, "replaceSongs: delete failed: " + tempList.getAbsolutePath());
                     }
-                } catch (IOException e) {
-                    Log.e(TAG, "writeSongs: IOException: " + e.getMessage());
                 }
+                if (!written) {
+                    return false;
+                }
+                if (!mList.delete()) {
+                    Log.w(TAG, "replaceSongs: delete failed: " + mList.getAbsolutePath());
+                }
+                if (!tempList.renameTo(mList)) {
+                    Log.e(TAG, "replaceSongs: rename failed: " + tempList.getAbsolutePath() + " -> " + mList.getAbsolutePath());
+                } else {
+                    replaced = true;
+                }
+            } catch (IOException e) {
+                Log.e(TAG, "replaceSongs: IOException: " + e.getMessage());
             }
-            if (!writeSuccessful) {
-                Log.w(TAG, "writeSongs: write failed");
-            } else if (mCallback != null) {
-                mCallback.onM3UWrite(mList);
+            return replaced;
+        }
+
+        // Only songs added since the last read or write are pending, and the file is as we left it
+        private boolean isAppendable() {
+            return mAppendable &&
+                    mWritten <= mSongs.size() &&
+                    mList.length() == mListLength &&
+                    mList.lastModified() == mListModified &&
+                    endsWithLine(mList);
+        }
+
+        private boolean appendSongs() {
+            boolean appended = false;
+            FileOutputStream os = null;
+            try {
+                os = new FileOutputStream(mList, true);
+                M3UWriter writer = new M3UWriter(os);
+                for (int i = mWritten; i < mSongs.size(); i++) {
+                    writer.write(mSongs.get(i));
+                }
+                writer.flush();
+                os.getFD().sync();
+                writer.close();
+                appended = true;
+            } catch (IOException e) {
+                Log.e(TAG, "appendSongs: IOException: " + e.getMessage());
+            } finally {
+                if (os != null && !appended) {
+                    try {
+                        os.getChannel().truncate(mListLength);
+                        os.close();
+                    } catch (IOException e) {
+                        Log.w(TAG, "appendSongs: IOException: " + e.getMessage());
+                    }
+                }
             }
+            return appended;
         }
 
-        private boolean writeM3U(Writer wr) {
+        private boolean endsWithLine(File list) {
+            boolean endsWithLine = false;
+            RandomAccessFile raf = null;
+            try {
+                raf = new RandomAccessFile(list, "r");
+                long length = raf.length();
+                if (length > 0) {
+                    raf.seek(length - 1);
+                    int c = raf.read();
+                    endsWithLine = (c == '\n' || c == '\r');
+                }
+            } catch (IOException e) {
+                Log.w(TAG, "endsWithLine: IOException: " + e.getMessage());
+            } finally {
+                if (raf != null) {
+                    try {
+                        raf.close();
+                    } catch (IOException e) {
+                        Log.w(TAG, "endsWithLine: IOException: " + e.getMessage());
+                    }
+                }
+            }
+            return endsWithLine;
+        }
+
+        private boolean writeM3U(M3UWriter writer) {
             boolean written = false;
             if (mSongs != null) {
                 try {
-                    wr.write(EXTM3U);
-                    wr.append(System.getProperty("line.separator"));
+                    writer.writeHeader();
                     for (M3UFile m3u : mSongs) {
-                        wr.append(System.getProperty("line.separator"));
-                        wr.write(EXTINF);
-                        wr.write(":");
-                        if (m3u.extended) {
-                            int lengthInS = (int) (m3u.songlength / 1000);
-                            wr.write(Integer.toString(lengthInS));
-                            wr.write(", ");
-                            m3u.author = m3u.author.replaceAll("-", "_");
-                            wr.append(m3u.author);
-                            wr.write(" - ");
-                            m3u.title = m3u.title.replaceAll("-", "_");
-                            wr.append(m3u.title);
-                            wr.append(System.getProperty("line.separator"));
-                        }
-                        wr.append(m3u.path);
-                        wr.write(File.separator);
-                        wr.append(m3u.name);
-                        wr.append(System.getProperty("line.separator"));
+                        writer.write(m3u);
                     }
-                    wr.flush();
+                    writer.flush();
                     written = true;
                 } catch (IOException e) {
                     Log.e(TAG, "writeM3U: IOException: " + e.getMessage());
@@ -296,25 +1026,29 @@ public class M3UParser {
         }
 
         private File getStorage() {
+            return getStorage(mStorage);
+        }
+
+        private File getStorage(int storage) {
             File dir = null;
-            if (mStorage == STORAGE_INTERNAL) {
+            if (storage == STORAGE_INTERNAL) {
                 dir = mContext.getCacheDir();
-            } else if (mStorage >= STORAGE_EXTERNAL) {
+            } else if (storage >= STORAGE_EXTERNAL) {
                 if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT) {
-                    int offset = mStorage - STORAGE_EXTERNAL;
+                    int offset = storage - STORAGE_EXTERNAL;
                     File[] externals = mContext.getExternalCacheDirs();
                     if (externals != null && externals.length > offset && externals[offset] != null) {
                         dir = externals[offset];
                     } else {
-                        Log.w(TAG, "getStorage: storage not available " + mStorage);
+                        Log.w(TAG, "getStorage: storage not available " + storage);
                     }
-                } else if (mStorage > STORAGE_EXTERNAL) {
+                } else if (storage > STORAGE_EXTERNAL) {
                     Log.w(TAG, "getStorage: not supported in SDK version " + Build.VERSION.SDK_INT);
                 } else {
                     dir = mContext.getExternalCacheDir();
                 }
             } else {
-                Log.w(TAG, "getStorage: storage not supported " + mStorage);
+                Log.w(TAG, "getStorage: storage not supported " + storage);
             }
             return dir;
         }
@@ -371,6 +1105,32 @@ public class M3UParser {
         }
     }
 
+    // Remote playlist, loaded through a local copy in the cache directory that is revalidated with ETag and Last-Modified
+    public void load(URI uri) {
+        if (uri == null || uri.getScheme() == null) {
+            Log.e(TAG, "load: invalid URI " + uri);
+        } else if ("file".equalsIgnoreCase(uri.getScheme())) {
+            try {
+                load(new File(uri));
+            } catch (IllegalArgumentException e) {
+                Log.e(TAG, "load: IllegalArgumentException: " + e.getMessage());
+            }
+        } else {
+            File list = M3URemote.getListFile(mContext.getCacheDir(), uri);
+            backgroundLoad(list.getAbsolutePath(), STORAGE_INTERNAL, uri);
+        }
+    }
+
+    // Playlist parsed from a stream, such as a download, while it is copied to the playlist file
+    public void load(InputStream stream, File list) {
+        if (stream == null || list == null) {
+            Log.e(TAG, "load: empty stream or path");
+        } else {
+            String name = list.getAbsolutePath();
+            backgroundLoad(name, inStorage(name), stream);
+        }
+    }
+
     public boolean isLoaded() {
         return mLoaded;
     }
@@ -397,6 +1157,78 @@ public class M3UParser {
         backgroundRemoveSong(m3u);
     }
 
+    public void addSongs(Collection<M3UFile> songs) {
+        if (songs != null && !songs.isEmpty()) {
+            sendMessageToHandler(M3U_ADD_LIST, null, copySongs(songs));
+        }
+    }
+
+    public void removeSongs(Collection<M3UFile> songs) {
+        if (songs != null && !songs.isEmpty()) {
+            sendMessageToHandler(M3U_REMOVE_LIST, null, copySongs(songs));
+        }
+    }
+
+    // Songs are also delivered in chunks while a playlist is loaded or streamed, before onM3UList()
+    public void setChunkCallback(IM3UChunkCallback callback) {
+        mChunkCallback = callback;
+    }
+
+    public IM3UChunkCallback getChunkCallback() {
+        return mChunkCallback;
+    }
+
+    // Modifications are reported as ranges of changed songs, instead of the whole list through onM3UList()
+    public void setChangeCallback(IM3UChangeCallback callback) {
+        mChangeCallback = callback;
+    }
+
+    public IM3UChangeCallback getChangeCallback() {
+        return mChangeCallback;
+    }
+
+    public void setWriteDelay(long delay) {
+        mWriteDelay = (delay > 0) ? delay : 0;
+    }
+
+    public long getWriteDelay() {
+        return mWriteDelay;
+    }
+
+    public void setCacheEnabled(boolean enabled) {
+        mCacheEnabled = enabled;
+    }
+
+    public boolean isCacheEnabled() {
+        return mCacheEnabled;
+    }
+
+    // Songs decode their extended information when first taken from a list, instead of while loading.
+    // Writing, sorting, searching and finding duplicates still decode every song.
+    public void setLazyEnabled(boolean enabled) {
+        mLazyEnabled = enabled;
+    }
+
+    public boolean isLazyEnabled() {
+        return mLazyEnabled;
+    }
+
+    public boolean isDirty() {
+        return mDirty;
+    }
+
+    public void flush() {
+        sendMessageToHandler(M3U_FLUSH, null);
+    }
+
+    public void beginBatch() {
+        sendMessageToHandler(M3U_BEGIN, null);
+    }
+
+    public void commitBatch() {
+        sendMessageToHandler(M3U_COMMIT, null);
+    }
+
     public boolean songExists(List<M3UFile> songs, String path, String name) {
         M3UFile m3u = new M3UFile(path, name);
         return songExists(songs, m3u);
@@ -414,12 +1246,7 @@ public class M3UParser {
     public int songIndex(List<M3UFile> songs, M3UFile m3u) {
         int index = -1;
         if (songs != null && m3u != null) {
-            for (int i = 0; i < songs.size(); i++) {
-                if (songs.get(i).equals(m3u)) {
-                    index = i;
-                    break;
-                }
-            }
+            index = songs.indexOf(m3u);
         }
         return index;
     }
@@ -432,6 +1259,119 @@ public class M3UParser {
         backgroundDump();
     }
 
+    public void quit() {
+        cancelValidation();
+        sendMessageToHandler(M3U_QUIT, null);
+        mQuit = true;
+    }
+
+    public boolean isQuit() {
+        return mQuit;
+    }
+
+    public void stream(String list) {
+        stream(list, CHUNK_SIZE);
+    }
+
+    public void stream(String list, int chunkSize) {
+        if (list == null || list.isEmpty()) {
+            Log.e(TAG, "stream: empty path");
+        } else if (chunkSize <= 0) {
+            Log.e(TAG, "stream: illegal chunk size " + chunkSize);
+        } else {
+            backgroundStream(list, chunkSize);
+        }
+    }
+
+    public void stream(File list) {
+        stream(list, CHUNK_SIZE);
+    }
+
+    public void stream(File list, int chunkSize) {
+        if (list == null) {
+            Log.e(TAG, "stream: empty path");
+        } else {
+            stream(list.getAbsolutePath(), chunkSize);
+        }
+    }
+
+    public void getSong(File list, int index, IM3URangeCallback callback) {
+        getRange(list, index, index + 1, callback);
+    }
+
+    // Reads songs [from, to) through an index of the playlist file, without loading it
+    public void getRange(File list, int from, int to, IM3URangeCallback callback) {
+        if (list == null) {
+            Log.e(TAG, "getRange: empty path");
+        } else if (from < 0 || to < from) {
+            Log.e(TAG, "getRange: illegal range " + from + "-" + to);
+        } else {
+            String name = list.getAbsolutePath();
+            backgroundRange(name, inStorage(name), from, to, callback);
+        }
+    }
+
+    // Songs whose path, name, author or title contain words starting with each word of the query
+    public void search(String query, IM3USearchCallback callback) {
+        Bundle data = new Bundle();
+        data.putString(BUNDLE_QUERY, query);
+        sendMessageToHandler(M3U_SEARCH, data, callback);
+    }
+
+    public void sort(int order) {
+        sort(order, false);
+    }
+
+    // Sorts the playlist by one of the SORT_ orders, songs that compare equal keep their order
+    public void sort(int order, boolean descending) {
+        if (order < SORT_PATH || order > SORT_SONGLENGTH) {
+            Log.e(TAG, "sort: illegal order " + order);
+        } else {
+            Bundle data = new Bundle();
+            data.putInt(BUNDLE_ORDER, order);
+            data.putBoolean(BUNDLE_DESCENDING, descending);
+            sendMessageToHandler(M3U_SORT, data);
+        }
+    }
+
+    // Moves the song at index from to index to, shifting the songs in between
+    public void move(int from, int to) {
+        if (from < 0 || to < 0) {
+            Log.e(TAG, "move: illegal move " + from + " -> " + to);
+        } else {
+            Bundle data = new Bundle();
+            data.putInt(BUNDLE_FROM, from);
+            data.putInt(BUNDLE_TO, to);
+            sendMessageToHandler(M3U_MOVE, data);
+        }
+    }
+
+    // Reports songs referring to the same file as an earlier song, with DEDUP_ options or 0
+    public void findDuplicates(int options, IM3UDuplicatesCallback callback) {
+        backgroundDedup(options, false, callback);
+    }
+
+    // Reports and removes duplicate songs, keeping the first song of each
+    public void removeDuplicates(int options, IM3UDuplicatesCallback callback) {
+        backgroundDedup(options, true, callback);
+    }
+
+    // Checks the files of all songs in the background, reporting missing files and files changed since the last check
+    public void validate(IM3UValidateCallback callback) {
+        sendMessageToHandler(M3U_VALIDATE, null, callback);
+    }
+
+    // Stops a validation in progress, no more reports are delivered for it
+    public void cancelValidation() {
+        if (mM3UHandler != null) {
+            mM3UHandler.removeMessages(M3U_VALIDATE);
+        }
+        M3UValidator.Job job = mValidation;
+        if (job != null) {
+            job.cancel();
+        }
+    }
+
     private boolean isValidName(String name) {
         return (name != null) && !name.isEmpty();
     }
@@ -473,26 +1413,104 @@ public class M3UParser {
         return storage;
     }
 
+    private static List<M3UFile> copySongs(Collection<M3UFile> songs) {
+        List<M3UFile> copies = new ArrayList<>(songs.size());
+        for (M3UFile m3u : songs) {
+            if (m3u == null) {
+                continue;
+            }
+            // Lazy songs have not been decoded yet if the caller never read them
+            m3u.decode();
+            M3UFile copy;
+            if (m3u.extended) {
+                copy = new M3UFile(m3u.path, m3u.name, m3u.author, m3u.title, m3u.songlength);
+            } else {
+                copy = new M3UFile(m3u.path, m3u.name);
+            }
+            // Attribute entries are never changed once read, so the copy can share them
+            copy.attributes = m3u.attributes;
+            copy.attributeEntry = m3u.attributeEntry;
+            copy.resolver = m3u.resolver;
+            copies.add(copy);
+        }
+        return copies;
+    }
+
+    // Requests that do not depend on the loaded playlist are handled while it is fetched
+    private static boolean isDeferred(int what) {
+        switch (what) {
+            case M3U_STREAM:
+            case M3U_RANGE:
+            case M3U_VALIDATED:
+            case M3U_FETCHED:
+                return false;
+            default:
+                return true;
+        }
+    }
+
+    private static boolean isQueued(int what) {
+        switch (what) {
+            case M3U_ADD:
+            case M3U_REMOVE:
+            case M3U_STREAM:
+            case M3U_ADD_LIST:
+            case M3U_REMOVE_LIST:
+            case M3U_BEGIN:
+            case M3U_COMMIT:
+            case M3U_RANGE:
+            case M3U_SORT:
+            case M3U_MOVE:
+            case M3U_DEDUP:
+            case M3U_VALIDATED:
+            case M3U_FETCHED:
+                return true;
+            default:
+                return false;
+        }
+    }
+
     private void sendMessageToHandler(int what, Bundle data) {
-        if (mM3UHandler != null) {
+        sendMessageToHandler(what, data, null);
+    }
+
+    private boolean sendMessageToHandler(int what, Bundle data, Object obj) {
+        if (mQuit) {
+            Log.e(TAG, "sendMessageToHandler: parser has quit: " + what);
+        } else if (mM3UHandler != null) {
             Message msg = mM3UHandler.obtainMessage(what);
             if (data != null) {
                 msg.setData(data);
             }
-            if (what != M3U_ADD && what != M3U_REMOVE) {
+            msg.obj = obj;
+            if (!isQueued(what)) {
                 mM3UHandler.removeMessages(what);
             }
             mM3UHandler.sendMessage(msg);
+            return true;
         } else {
             Log.e(TAG, "sendMessageToHandler: no handler: " + what);
         }
+        return false;
     }
 
     private void backgroundLoad(String list, int storage) {
+        backgroundLoad(list, storage, null);
+    }
+
+    private void backgroundLoad(String list, int storage, Object source) {
         Bundle data = new Bundle();
         data.putString(BUNDLE_LIST, list);
         data.putInt(BUNDLE_STORAGE, storage);
-        sendMessageToHandler(M3U_LOAD, data);
+        LoadRequest load = new LoadRequest(source);
+        LoadRequest previous = mLastLoad.getAndSet(load);
+        if (!sendMessageToHandler(M3U_LOAD, data, load)) {
+            load.cancel();
+        }
+        // Closes the stream of a load that is replaced before it was handled
+        if (previous != null) {
+            previous.cancel();
+        }
     }
 
     private void backgroundUnload() {
@@ -501,6 +1519,7 @@ public class M3UParser {
 
     private void backgroundAddSong(M3UFile m3u) {
         if (m3u != null) {
+            m3u.decode();
             Bundle data = new Bundle();
             data.putBoolean(BUNDLE_EXTENDED, m3u.extended);
             data.putString(BUNDLE_PATH, m3u.path);
@@ -508,7 +1527,7 @@ public class M3UParser {
             data.putString(BUNDLE_AUTHOR, m3u.author);
             data.putString(BUNDLE_TITLE, m3u.title);
             data.putLong(BUNDLE_SONGLENGTH, m3u.songlength);
-            sendMessageToHandler(M3U_ADD, data);
+            sendMessageToHandler(M3U_ADD, data, m3u);
         }
     }
 
@@ -532,4 +1551,163 @@ public class M3UParser {
     private void backgroundDump() {
         sendMessageToHandler(M3U_DUMP, null);
     }
+
+    private void backgroundStream(String list, int chunkSize) {
+        Bundle data = new Bundle();
+        data.putString(BUNDLE_LIST, list);
+        data.putInt(BUNDLE_CHUNK, chunkSize);
+        sendMessageToHandler(M3U_STREAM, data);
+    }
+
+    private void backgroundRange(String list, int storage, int from, int to, IM3URangeCallback callback) {
+        Bundle data = new Bundle();
+        data.putString(BUNDLE_LIST, list);
+        data.putInt(BUNDLE_STORAGE, storage);
+        data.putInt(BUNDLE_FROM, from);
+        data.putInt(BUNDLE_TO, to);
+        sendMessageToHandler(M3U_RANGE, data, callback);
+    }
+
+    private void backgroundDedup(int options, boolean remove, IM3UDuplicatesCallback callback) {
+        Bundle data = new Bundle();
+        data.putInt(BUNDLE_OPTIONS, options);
+        data.putBoolean(BUNDLE_REMOVE, remove);
+        sendMessageToHandler(M3U_DEDUP, data, callback);
+    }
+
+    // Taken by the parser thread, or cancelled by a newer load, whichever comes first
+    private static final class LoadRequest {
+        final Object source;
+        private final AtomicBoolean mDone;
+
+        LoadRequest(Object source) {
+            this.source = source;
+            mDone = new AtomicBoolean(false);
+        }
+
+        boolean take() {
+            return mDone.compareAndSet(false, true);
+        }
+
+        void cancel() {
+            if (mDone.compareAndSet(false, true) && source instanceof Closeable) {
+                try {
+                    ((Closeable) source).close();
+                } catch (IOException e) {
+                    Log.w(TAG, "cancel: IOException: " + e.getMessage());
+                }
+            }
+        }
+    }
+
+    // Downloads and parses a remote playlist or a stream, handing its songs to the parser thread in chunks
+    private final class Fetch implements Runnable {
+        private final Object mSource;
+        private final File mList;
+        private final M3UResolver mResolver;
+        // Read on the parser thread after the last chunk
+        private boolean mDownloaded;
+        private boolean mAppendable;
+
+        Fetch(Object source, File list, M3UResolver resolver) {
+            mSource = source;
+            mList = list;
+            mResolver = resolver;
+            mDownloaded = false;
+            mAppendable = false;
+        }
+
+        boolean isDownloaded() {
+            return mDownloaded;
+        }
+
+        boolean isAppendable() {
+            return mAppendable;
+        }
+
+        @Override
+        public void run() {
+            M3URemote remote = null;
+            M3UDownload download = null;
+            try {
+                if (mSource instanceof URI) {
+                    remote = new M3URemote((URI) mSource, mList);
+                    download = remote.fetch();
+                } else {
+                    download = new M3UDownload((InputStream) mSource, null, mList);
+                }
+            } catch (IOException e) {
+                Log.w(TAG, "fetch: IOException: " + e.getMessage());
+            }
+            if (download == null) {
+                // Unchanged since the last fetch, or unreachable
+                if (mSource instanceof InputStream) {
+                    close((InputStream) mSource);
+                }
+            } else {
+                try {
+                    M3UReader reader = download.getReader();
+                    reader.setResolver(mResolver);
+                    List<M3UFile> chunk = new ArrayList<>(CHUNK_SIZE);
+                    while (reader.read(chunk, CHUNK_SIZE) > 0) {
+                        report(chunk, false);
+                        chunk = new ArrayList<>(CHUNK_SIZE);
+                    }
+                    if (remote != null) {
+                        remote.commit(download);
+                    } else {
+                        download.commit();
+                    }
+                    mAppendable = reader.isExtended() && M3UDecoder.UTF_8.equals(reader.getCharset());
+                    mDownloaded = true;
+                } catch (IOException e) {
+                    Log.w(TAG, "fetch: IOException: " + e.getMessage());
+                } finally {
+                    close(download);
+                }
+            }
+            report(new ArrayList<M3UFile>(), true);
+        }
+
+        private void report(List<M3UFile> songs, boolean last) {
+            Message msg = mM3UHandler.obtainMessage(M3U_FETCHED, new FetchReport(this, songs, last));
+            mM3UHandler.sendMessage(msg);
+        }
+
+        private void close(Closeable closeable) {
+            try {
+                closeable.close();
+            } catch (IOException e) {
+                Log.w(TAG, "fetch: IOException: " + e.getMessage());
+            }
+        }
+    }
+
+    private static final class FetchReport {
+        final Fetch fetch;
+        final List<M3UFile> songs;
+        final boolean last;
+
+        FetchReport(Fetch fetch, List<M3UFile> songs, boolean last) {
+            this.fetch = fetch;
+            this.songs = songs;
+            this.last = last;
+        }
+    }
+
+    private static final class ValidateReport {
+        final M3UValidator.Job job;
+        final int[] missing;
+        final int[] changed;
+        final int count;
+        final boolean last;
+
+        ValidateReport(M3UValidator.Job job, int[] missing, int[] changed, int count, boolean last) {
+            this.job = job;
+            this.missing = missing;
+            this.changed = changed;
+            this.count = count;
+            this.last = last;
+        }
+    }
 }